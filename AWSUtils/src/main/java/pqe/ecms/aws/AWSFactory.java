@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.Properties;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSCredentialsProviderChain;
 import com.amazonaws.auth.InstanceProfileCredentialsProvider;
@@ -11,6 +12,8 @@ import com.amazonaws.auth.profile.ProfileCredentialsProvider;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClientBuilder;
 import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
 
 /**
@@ -22,6 +25,8 @@ public class AWSFactory {
 	private static AWSCredentialsProvider credentials;
 	private static AmazonS3 s3Client;
 	private static AmazonSQS sqsClient;
+	private static AmazonSQSAsync sqsAsyncClient;
+	private static int s3MaxConnections = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
 
 	/**
 	 * This creates the credentials chain that we support of looking for the ~/.aws/credentials first then falling back on the Instance credentials if the server is in AWS.
@@ -51,6 +56,23 @@ public class AWSFactory {
 		return prop;
 	}
 
+	/**
+	 * Sets the size of the HTTP connection pool of the s3 client, which caps the number of requests that can be in flight at once.
+	 * A client that was already built with a different size is replaced on the next call to {@link AWSFactory#getS3Client()}.
+	 * @param maxConnections
+	 */
+	public static void setS3MaxConnections(int maxConnections) {
+		lock.lock();
+		try {
+			if (s3MaxConnections != maxConnections) {
+				s3MaxConnections = maxConnections;
+				s3Client = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Retrieves the s3 client build with the credentials retrieved from {@link AWSFactory#getCredentials()}
 	 * @return
@@ -60,7 +82,8 @@ public class AWSFactory {
 			lock.lock();
 			try {
 				if (null == s3Client)
-					s3Client = AmazonS3ClientBuilder.standard().withRegion("us-east-1").withCredentials(getCredentials()).build();
+					s3Client = AmazonS3ClientBuilder.standard().withRegion("us-east-1").withCredentials(getCredentials())
+							.withClientConfiguration(new ClientConfiguration().withMaxConnections(s3MaxConnections)).build();
 			} finally {
 				lock.unlock();
 			}
@@ -84,4 +107,21 @@ public class AWSFactory {
 		}
 		return sqsClient;
 	}
+
+	/**
+	 * Retrieves the asynchronous SQS client build with the credentials retrieved from {@link AWSFactory#getCredentials()}
+	 * @return
+	 */
+	public static AmazonSQSAsync getSQSAsyncClient() {
+		if (null == sqsAsyncClient) {
+			lock.lock();
+			try {
+				if (null == sqsAsyncClient)
+					sqsAsyncClient = AmazonSQSAsyncClientBuilder.standard().withRegion("us-east-1").withCredentials(getCredentials()).build();
+			} finally {
+				lock.unlock();
+			}
+		}
+		return sqsAsyncClient;
+	}
 }
@@ -2,19 +2,105 @@ package pqe.ecms.aws;
 
 import com.amazonaws.services.s3.model.S3Object;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.stream.Collectors;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class AmazonS3Helper {
 
-	public static String readLinesFromAmazon(S3Object s3Object) throws IOException {
-		String input;
-		try (BufferedReader buffer = new BufferedReader(new InputStreamReader(s3Object.getObjectContent()))) {
-			input = buffer.lines().collect(Collectors.joining("\n"));
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Buffers larger than this are used once and dropped rather than kept by the reading thread.
+	 */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024 * 1024;
+
+	private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[DEFAULT_BUFFER_SIZE]);
+
+	private static final BodyStatistics STATISTICS = new BodyStatistics();
+
+	/**
+	 * Reads the whole object as UTF-8 text. <br/>
+	 * The Content-Length of the object sizes the read so the content is copied into a single per-thread buffer and decoded once.
+	 *
+	 * @param s3Object
+	 * @return
+	 * @throws IOException
+	 */
+	public static String readBody(S3Object s3Object) throws IOException {
+		long startTime = System.nanoTime();
+		ByteBuffer content;
+		try (InputStream input = s3Object.getObjectContent()) {
+			content = readFully(input, s3Object.getObjectMetadata().getContentLength());
+		}
+		String body = decode(content);
+		STATISTICS.record(content.remaining(), System.nanoTime() - startTime);
+		return body;
+	}
+
+	/**
+	 * Reads the whole stream as UTF-8 text.
+	 *
+	 * @param input
+	 * @param sizeHint The expected number of bytes, 0 or less when unknown.
+	 * @return
+	 * @throws IOException
+	 */
+	public static String readBody(InputStream input, long sizeHint) throws IOException {
+		return decode(readFully(input, sizeHint));
+	}
+
+	public static BodyStatistics getStatistics() {
+		return STATISTICS;
+	}
+
+	private static String decode(ByteBuffer content) {
+		return new String(content.array(), content.arrayOffset() + content.position(), content.remaining(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the stream into the thread's buffer, the returned view is only valid until the thread reads again.
+	 */
+	private static ByteBuffer readFully(InputStream input, long sizeHint) throws IOException {
+		byte[] buffer = buffer(sizeHint > 0 && sizeHint < Integer.MAX_VALUE ? (int) sizeHint : DEFAULT_BUFFER_SIZE);
+		int length = 0;
+		while (true) {
+			int read = input.read(buffer, length, buffer.length - length);
+			if (read == -1) {
+				break;
+			}
+			length += read;
+
+			if (length == buffer.length) {
+				// Either the size was exact, in which case this finds the end, or the content is longer than expected.
+				int next = input.read();
+				if (next == -1) {
+					break;
+				}
+				buffer = grow(buffer, length);
+				buffer[length++] = (byte) next;
+			}
+		}
+		return ByteBuffer.wrap(buffer, 0, length);
+	}
+
+	private static byte[] buffer(int size) {
+		byte[] buffer = BUFFERS.get();
+		if (buffer.length >= size) {
+			return buffer;
+		}
+		buffer = new byte[size];
+		if (size <= MAX_RETAINED_BUFFER_SIZE) {
+			BUFFERS.set(buffer);
 		}
-		return input;
+		return buffer;
+	}
+
+	private static byte[] grow(byte[] buffer, int length) {
+		byte[] grown = buffer(buffer.length * 2);
+		System.arraycopy(buffer, 0, grown, 0, length);
+		return grown;
 	}
 
 }
@@ -0,0 +1,57 @@
+package pqe.ecms.aws;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the bodies read from S3 along with their sizes and the time taken to read them.
+ */
+public class BodyStatistics {
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalBytes = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxBytes = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long bytes, long nanos) {
+		count.increment();
+		totalBytes.add(bytes);
+		totalNanos.add(nanos);
+		maxBytes.accumulateAndGet(bytes, Math::max);
+		maxNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	public long getCount() {
+		return count.longValue();
+	}
+
+	public long getTotalBytes() {
+		return totalBytes.longValue();
+	}
+
+	public long getAverageBytes() {
+		long bodies = count.longValue();
+		return bodies == 0 ? 0 : totalBytes.longValue() / bodies;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes.get();
+	}
+
+	public long getAverageReadMillis() {
+		long bodies = count.longValue();
+		return bodies == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.longValue() / bodies);
+	}
+
+	public long getMaxReadMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+	}
+
+	@Override
+	public String toString() {
+		return String.format("s3Bodies=%d, s3BodyAvgKb=%d, s3BodyMaxKb=%d, s3ReadAvgMs=%d, s3ReadMaxMs=%d",
+				getCount(), getAverageBytes() / 1024, getMaxBytes() / 1024, getAverageReadMillis(), getMaxReadMillis());
+	}
+}
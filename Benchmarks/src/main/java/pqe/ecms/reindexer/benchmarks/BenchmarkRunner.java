@@ -0,0 +1,29 @@
+package pqe.ecms.reindexer.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the reindexer benchmarks with the GC profiler attached, so every result carries its allocation rate next to its ops/sec. <br/>
+ * Accepts the usual JMH command line, e.g. a benchmark name pattern, and writes the results to <b>jmh-result.json</b> for comparison between runs.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(BenchmarkRunner.class.getPackage().getName() + ".*")
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("jmh-result.json")
+				.build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,74 @@
+package pqe.ecms.reindexer.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pqe.ecms.reindexer.LongQueueBatching;
+import pqe.ecms.reindexer.QueueBatching;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of {@link QueueBatching} splitting a stream of document ids into message sized batches, sequentially and in parallel,
+ * against {@link LongQueueBatching} filling a reused array from a primitive stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueBatchingBenchmark {
+
+	private static final int ITEMS = 100_000;
+
+	@Param({"false", "true"})
+	private boolean parallel;
+
+	@Param({"100", "1000"})
+	private int batchSize;
+
+	@Benchmark
+	@OperationsPerInvocation(ITEMS)
+	public int batch(Blackhole blackhole) {
+		QueueBatching<Long> batching = new QueueBatching<>(batchSize, blackhole::consume);
+		Stream<Long> ids = LongStream.range(0, ITEMS).boxed();
+		batching.indexContent(parallel ? ids.parallel() : ids);
+		return batching.getBatchCount();
+	}
+
+	/**
+	 * {@link LongQueueBatching} only takes sequential streams, so it has its own state without the {@code parallel} parameter
+	 * rather than measuring the same run twice.
+	 */
+	@State(Scope.Thread)
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Warmup(iterations = 5, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	@Fork(1)
+	public static class LongBatching {
+
+		@Param({"100", "1000"})
+		private int batchSize;
+
+		@Benchmark
+		@OperationsPerInvocation(ITEMS)
+		public int longBatch(Blackhole blackhole) {
+			LongQueueBatching batching = new LongQueueBatching(batchSize, (batch, length) -> blackhole.consume(batch[length - 1]));
+			batching.indexContent(LongStream.range(0, ITEMS));
+			return batching.getBatchCount();
+		}
+	}
+}
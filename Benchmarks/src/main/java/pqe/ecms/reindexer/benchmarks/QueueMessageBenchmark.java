@@ -0,0 +1,61 @@
+package pqe.ecms.reindexer.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pqe.ecms.reindexer.QueueMessage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Encoding and decoding a {@link QueueMessage} body at the batch sizes the supplier sends, through Jackson data binding.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueMessageBenchmark {
+
+	private static final long FIRST_DOCUMENT_ID = 40_000_000L;
+
+	@Param({"100", "1000"})
+	private int documents;
+
+	private ObjectMapper objectMapper = new ObjectMapper();
+	private QueueMessage message;
+	private String body;
+
+	@Setup
+	public void setup() throws IOException {
+		// Ids of a real run are ascending with small gaps.
+		message = new QueueMessage(LongStream.range(0, documents)
+				.map(i -> FIRST_DOCUMENT_ID + i * 3)
+				.boxed()
+				.collect(Collectors.toList()));
+		body = objectMapper.writeValueAsString(message);
+	}
+
+	@Benchmark
+	public String encode() throws IOException {
+		return objectMapper.writeValueAsString(message);
+	}
+
+	@Benchmark
+	public QueueMessage decode() throws IOException {
+		return objectMapper.readValue(body, QueueMessage.class);
+	}
+}
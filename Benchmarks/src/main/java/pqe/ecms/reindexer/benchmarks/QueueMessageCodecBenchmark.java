@@ -0,0 +1,61 @@
+package pqe.ecms.reindexer.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pqe.ecms.reindexer.QueueMessage;
+import pqe.ecms.reindexer.QueueMessageCodec;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+/**
+ * Encoding and decoding message bodies with {@link QueueMessageCodec} in every format, up to the batch sizes the binary formats allow.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueMessageCodecBenchmark {
+
+	private static final long FIRST_DOCUMENT_ID = 40_000_000L;
+
+	@Param({"100", "1000", "10000"})
+	private int documents;
+
+	@Param({"JSON", "BINARY", "DEFLATE"})
+	private QueueMessageCodec.Format format;
+
+	private long[] documentIds;
+	private String body;
+
+	@Setup
+	public void setup() {
+		// Ids of a real run are descending with small gaps.
+		documentIds = LongStream.range(0, documents)
+				.map(i -> FIRST_DOCUMENT_ID - i * 3)
+				.toArray();
+		body = QueueMessageCodec.encode(documentIds, documentIds.length, format);
+	}
+
+	@Benchmark
+	public String encode() {
+		return QueueMessageCodec.encode(documentIds, documentIds.length, format);
+	}
+
+	@Benchmark
+	public QueueMessage decode() throws IOException {
+		return QueueMessageCodec.decode(body);
+	}
+}
@@ -0,0 +1,50 @@
+package pqe.ecms.reindexer.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pqe.ecms.aws.AmazonS3Helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and decoding document bodies with {@link AmazonS3Helper} for small, typical and large XML documents,
+ * with and without the Content-Length the S3 object normally provides.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class S3BodyBenchmark {
+
+	@Param({"4096", "65536", "1048576"})
+	private int size;
+
+	@Param({"true", "false"})
+	private boolean contentLength;
+
+	private byte[] body;
+
+	@Setup
+	public void setup() {
+		body = SampleDocuments.xml(size).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public String readBody() throws IOException {
+		return AmazonS3Helper.readBody(new ByteArrayInputStream(body), contentLength ? body.length : -1);
+	}
+}
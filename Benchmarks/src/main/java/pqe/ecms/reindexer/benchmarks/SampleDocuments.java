@@ -0,0 +1,73 @@
+package pqe.ecms.reindexer.benchmarks;
+
+import pqe.ecms.client.editorialstorage.domain.MappedDocument;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the synthetic documents the benchmarks work on, so runs are reproducible without S3 or the database.
+ */
+class SampleDocuments {
+
+	private static final String PARAGRAPH = "<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua. "
+			+ "R\u00e9sum\u00e9 na\u00efve caf\u00e9 \u2013 \u00fcber stra\u00dfe.</p>\n";
+
+	private SampleDocuments() {
+	}
+
+	/**
+	 * @param size The approximate size of the document in characters.
+	 * @return An XML document of mostly ASCII text with some multi-byte characters, as in the stored bodies.
+	 */
+	static String xml(int size) {
+		StringBuilder xml = new StringBuilder(size + PARAGRAPH.length() * 2);
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<document><body>\n");
+		while (xml.length() < size - 20) {
+			xml.append(PARAGRAPH);
+		}
+		xml.append("</body></document>\n");
+		return xml.toString();
+	}
+
+	/**
+	 * @param fields         The number of fields.
+	 * @param valuesPerField The number of values in every field.
+	 * @return A mapped document with the values held in memory.
+	 */
+	static MappedDocument mappedDocument(int fields, int valuesPerField) {
+		Map<String, List<String>> values = new LinkedHashMap<>();
+		for (int field = 0; field < fields; field++) {
+			List<String> fieldValues = new ArrayList<>(valuesPerField);
+			for (int value = 0; value < valuesPerField; value++) {
+				fieldValues.add("value " + value + " of field " + field);
+			}
+			values.put("field_" + field, fieldValues);
+		}
+		return new SampleMappedDocument(values);
+	}
+
+	/**
+	 * Serves the two accessors the converter reads from a map.
+	 */
+	private static class SampleMappedDocument extends MappedDocument {
+		private final Map<String, List<String>> values;
+
+		private SampleMappedDocument(Map<String, List<String>> values) {
+			this.values = values;
+		}
+
+		@Override
+		public Set<String> fieldSet() {
+			return values.keySet();
+		}
+
+		@Override
+		public List<String> getFieldValues(String field) {
+			return values.get(field);
+		}
+	}
+}
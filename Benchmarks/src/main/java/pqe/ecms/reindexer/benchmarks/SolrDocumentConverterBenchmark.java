@@ -0,0 +1,45 @@
+package pqe.ecms.reindexer.benchmarks;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pqe.ecms.client.editorialstorage.domain.MappedDocument;
+import pqe.ecms.reindexer.workflow.SolrDocumentConverter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting a mapped document into a {@link SolrInputDocument}, the last stage before documents are posted to Solr.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolrDocumentConverterBenchmark {
+
+	@Param({"40", "200"})
+	private int fields;
+
+	private MappedDocument mappedDocument;
+
+	@Setup
+	public void setup() {
+		mappedDocument = SampleDocuments.mappedDocument(fields, 3);
+	}
+
+	@Benchmark
+	public SolrInputDocument toSolrInputDocument() {
+		return SolrDocumentConverter.toSolrInputDocument(mappedDocument);
+	}
+}
@@ -0,0 +1,113 @@
+package pqe.ecms.reindexer.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pqe.ecms.reindexer.AbstractLongSource;
+import pqe.ecms.reindexer.AbstractSource;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Hand-off throughput of {@link AbstractSource} and {@link AbstractLongSource}, with a producer thread feeding the queue while the benchmark
+ * thread drains the stream, and for the pre-filled queue the consumer streams each message from.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourceBenchmark {
+
+	private static final int ITEMS = 100_000;
+	private static final int MESSAGE_ITEMS = 100;
+
+	private List<Long> messageIds;
+
+	@Setup
+	public void setup() {
+		messageIds = LongStream.range(0, MESSAGE_ITEMS).boxed().collect(Collectors.toList());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ITEMS)
+	public long producerHandOff() throws InterruptedException {
+		BenchmarkSource source = new BenchmarkSource();
+		Thread producer = new Thread(() -> {
+			for (long id = 0; id < ITEMS; id++) {
+				source.accept(id);
+			}
+			source.finish();
+		});
+		producer.start();
+
+		long count = source.stream().count();
+		producer.join();
+		return count;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ITEMS)
+	public long longProducerHandOff() throws InterruptedException {
+		BenchmarkLongSource source = new BenchmarkLongSource();
+		Thread producer = new Thread(() -> {
+			for (long id = 0; id < ITEMS; id++) {
+				source.accept(id);
+			}
+			source.finish();
+		});
+		producer.start();
+
+		long count = source.longStream().count();
+		producer.join();
+		return count;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MESSAGE_ITEMS)
+	public long obtrudedMessage() {
+		BenchmarkSource source = new BenchmarkSource();
+		source.obtrudeQueue(messageIds);
+		return source.stream().mapToLong(Long::longValue).sum();
+	}
+
+	private static class BenchmarkSource extends AbstractSource<Long> {
+		private static final Logger LOGGER = LoggerFactory.getLogger(BenchmarkSource.class);
+
+		@Override
+		protected Logger logger() {
+			return LOGGER;
+		}
+
+		private void finish() {
+			complete();
+		}
+	}
+
+	private static class BenchmarkLongSource extends AbstractLongSource {
+		private static final Logger LOGGER = LoggerFactory.getLogger(BenchmarkLongSource.class);
+
+		@Override
+		protected Logger logger() {
+			return LOGGER;
+		}
+
+		private void finish() {
+			complete();
+		}
+	}
+}
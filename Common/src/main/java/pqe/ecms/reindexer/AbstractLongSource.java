@@ -0,0 +1,248 @@
+package pqe.ecms.reindexer;
+
+import org.slf4j.Logger;
+
+import java.util.Spliterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The primitive counterpart of {@link AbstractSource}, streaming document identifiers without boxing them. <br/>
+ * Identifiers are written into chunks of {@link #CHUNK_SIZE} which are handed to the {@link LongStream} through a bounded {@link RingBuffer}.
+ * Drained chunks go back to the producer through a second buffer, so a steady stream allocates nothing after the first few chunks.
+ * With a linger time a timer also hands off a partial chunk once its first identifier has waited that long, so identifiers aren't held back while
+ * the producer blocks or sleeps.  The chunk being filled is then guarded by a lock, without a linger time it is only touched by the producer.
+ */
+public abstract class AbstractLongSource implements LongConsumer {
+
+	public static final int CHUNK_SIZE = 256;
+
+	private final RingBuffer<Chunk> pending;
+	private final RingBuffer<Chunk> free;
+	private final LongStream outputStream;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder lingerCount = new LongAdder();
+	private final long lingerNanos;
+	private final ScheduledExecutorService lingerService;
+
+	private Chunk filling = new Chunk();
+	private long firstNanos;
+
+	protected AbstractLongSource() {
+		this(AbstractSource.DEFAULT_CAPACITY, BlockingWaitStrategy::new);
+	}
+
+	/**
+	 * @param capacity     The number of identifiers buffered ahead of the stream, rounded up to whole chunks.
+	 * @param waitStrategy Creates the strategy the producer and the stream wait on each other with.
+	 */
+	protected AbstractLongSource(int capacity, Supplier<WaitStrategy> waitStrategy) {
+		this(capacity, waitStrategy, 0);
+	}
+
+	/**
+	 * @param capacity     The number of identifiers buffered ahead of the stream, rounded up to whole chunks.
+	 * @param waitStrategy Creates the strategy the producer and the stream wait on each other with.
+	 * @param lingerMillis The longest an identifier waits in a partial chunk before the chunk is handed off, 0 to only hand off full chunks.
+	 */
+	protected AbstractLongSource(int capacity, Supplier<WaitStrategy> waitStrategy, long lingerMillis) {
+		int chunks = Math.max(2, (capacity + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		this.pending = new RingBuffer<>(chunks, waitStrategy);
+		this.free = new RingBuffer<>(pending.capacity() + 2, BlockingWaitStrategy::new);
+		this.outputStream = StreamSupport.longStream(new ChunkSpliterator(), false);
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+		if (lingerNanos > 0) {
+			this.lingerService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "source-linger");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(TimeUnit.MILLISECONDS.toNanos(1), lingerNanos / 4);
+			lingerService.scheduleWithFixedDelay(this::linger, period, period, TimeUnit.NANOSECONDS);
+		} else {
+			this.lingerService = null;
+		}
+	}
+
+	protected abstract Logger logger();
+
+	/**
+	 * Returns the {@link LongStream} of the identifiers.  Like {@link AbstractSource#stream()} it can only be consumed once.
+	 *
+	 * @return
+	 */
+	public LongStream longStream() {
+		return outputStream;
+	}
+
+	/**
+	 * Boxes the identifiers for callers of the {@link AbstractSource} API.
+	 *
+	 * @return
+	 */
+	public Stream<Long> stream() {
+		return outputStream.boxed();
+	}
+
+	/**
+	 * Pushes an identifier onto the chunk being filled, handing the chunk to the stream once it is full.
+	 * Only a single thread may push identifiers.
+	 *
+	 * @param value
+	 */
+	@Override
+	public void accept(long value) {
+		if (lingerService == null) {
+			push(value);
+		} else {
+			synchronized (this) {
+				push(value);
+			}
+		}
+	}
+
+	/**
+	 * Hands over the last partial chunk and signals that no more identifiers will be pushed.
+	 */
+	protected void complete() {
+		if (lingerService != null) {
+			lingerService.shutdownNow();
+		}
+		synchronized (this) {
+			if (filling.length > 0) {
+				handOff();
+			}
+		}
+		pending.close();
+		logger().info("The source is complete after {} items, {} chunks handed off partially", count.longValue(), lingerCount.longValue());
+	}
+
+	public long getCount() {
+		return count.longValue();
+	}
+
+	/**
+	 * @return The number of partial chunks handed off because their first identifier had lingered too long.
+	 */
+	public long getLingerCount() {
+		return lingerCount.longValue();
+	}
+
+	private void push(long value) {
+		if (filling.length == 0) {
+			firstNanos = System.nanoTime();
+		}
+		filling.values[filling.length++] = value;
+		if (filling.length == CHUNK_SIZE) {
+			handOff();
+		}
+	}
+
+	/**
+	 * Hands off the partial chunk if its first identifier has waited too long.  Skipped while the stream has chunks to read anyway,
+	 * so the timer never blocks on a full buffer.
+	 */
+	private synchronized void linger() {
+		// The length is read first, the stream may have read the chunk and cleared it by the time the offer returns.
+		int length = filling.length;
+		if (length > 0 && System.nanoTime() - firstNanos >= lingerNanos && pending.offer(filling)) {
+			count.add(length);
+			lingerCount.increment();
+			nextChunk();
+		}
+	}
+
+	private void handOff() {
+		try {
+			count.add(filling.length);
+			pending.put(filling);
+			nextChunk();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Things are going wrong while queuing. (accept)", e);
+		}
+	}
+
+	private void nextChunk() {
+		Chunk recycled = free.poll();
+		filling = recycled == null ? new Chunk() : recycled;
+	}
+
+	private static class Chunk {
+		private final long[] values = new long[CHUNK_SIZE];
+		private int length;
+	}
+
+	/**
+	 * Walks the chunks in the order they were handed off, returning each one to the producer once it has been read.
+	 */
+	private class ChunkSpliterator implements Spliterator.OfLong {
+		private Chunk reading;
+		private int position;
+
+		@Override
+		public boolean tryAdvance(LongConsumer action) {
+			if (!nextChunk()) {
+				return false;
+			}
+			action.accept(reading.values[position++]);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(LongConsumer action) {
+			while (nextChunk()) {
+				long[] values = reading.values;
+				int length = reading.length;
+				while (position < length) {
+					action.accept(values[position++]);
+				}
+			}
+		}
+
+		/**
+		 * @return false once the source is complete and every chunk has been read.
+		 */
+		private boolean nextChunk() {
+			if (reading != null && position < reading.length) {
+				return true;
+			}
+			if (reading != null) {
+				reading.length = 0;
+				free.offer(reading);
+				reading = null;
+			}
+
+			try {
+				reading = pending.take();
+				position = 0;
+				return reading != null;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Things are going wrong while streaming. (tryAdvance)", e);
+			}
+		}
+
+		@Override
+		public Spliterator.OfLong trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.NONNULL;
+		}
+	}
+}
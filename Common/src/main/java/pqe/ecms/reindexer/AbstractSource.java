@@ -6,58 +6,71 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Spliterator;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 /**
  * Search supplier executes the search(es) that are supplied through configuration streaming the resulting document identifiers. <br/>
- * An {@link ArrayBlockingQueue} is used to buffer the SOLR searching against the utilization of the items in the {@link Stream}.
- * This queue is used to populate the {@link Stream} through the use of  a custom queue spliterator {@link QueuedSpliterator}
+ * A bounded {@link RingBuffer} is used to buffer the SOLR searching against the utilization of the items in the {@link Stream}.
+ * This buffer is used to populate the {@link Stream} through the use of a custom spliterator {@link QueuedSpliterator}.
+ * Producers and the stream wait on each other through the configured {@link WaitStrategy} and the stream ends as soon as the source is completed and drained.
  */
 public abstract class AbstractSource<T> implements Consumer<T> {
 
-	private ArrayBlockingQueue<T> pending;
+	public static final int DEFAULT_CAPACITY = 512;
+
+	private final Supplier<WaitStrategy> waitStrategy;
+	private RingBuffer<T> pending;
 	private Stream<T> outputStream;
-	private QueuedSpliterator spliterator;
 	private LongAdder count;
 
 	protected AbstractSource() {
-		this.pending = new ArrayBlockingQueue<>(500);
-		this.spliterator = new QueuedSpliterator(pending);
-		this.outputStream = StreamSupport.stream(spliterator, false);
+		this(DEFAULT_CAPACITY, BlockingWaitStrategy::new);
+	}
+
+	/**
+	 * @param capacity     The number of items buffered ahead of the stream, rounded up to a power of two.
+	 * @param waitStrategy Creates the strategy the producers and the stream wait on each other with.
+	 */
+	protected AbstractSource(int capacity, Supplier<WaitStrategy> waitStrategy) {
+		this.waitStrategy = waitStrategy;
+		this.pending = new RingBuffer<>(capacity, waitStrategy);
+		this.outputStream = StreamSupport.stream(new QueuedSpliterator(pending), false);
 		this.count = new LongAdder();
 	}
 
 	public void obtrudeQueue(Collection<T> values) {
-		pending = new ArrayBlockingQueue<>(values.size());
-		pending.addAll(values);
+		RingBuffer<T> obtruded = new RingBuffer<>(values.size(), waitStrategy);
+		values.forEach(obtruded::offer);
 		count.add(values.size());
+		obtruded.close();
 
-		spliterator = new QueuedSpliterator(pending);
-		outputStream = StreamSupport.stream(spliterator, false);
+		pending = obtruded;
+		outputStream = StreamSupport.stream(new QueuedSpliterator(obtruded), false);
+	}
 
-		spliterator.complete();
+	/**
+	 * Signals that no more content will be pushed, the stream ends once it has taken the content still buffered.
+	 */
+	protected void complete() {
+		pending.close();
+		logger().info("The source is complete with {} items still buffered", pending.size());
 	}
 
+	/**
+	 * Completes the source and waits for the stream to take the content still buffered.
+	 */
 	protected void waitUntilEmpty() {
-		if (pending.size() > 0) {
-			logger().info("Waiting for the source queue to empty");
-			while (pending.size() > 0) {
-				try {
-					Thread.sleep(100);
-				} catch (InterruptedException e) {
-				}
-			}
+		complete();
+		try {
+			pending.awaitEmpty();
 			logger().info("The source queue has been emptied");
-		} else {
-			logger().info("The source queue is empty");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		spliterator.complete();
 	}
 
 	protected abstract Logger logger();
@@ -72,7 +85,7 @@ public abstract class AbstractSource<T> implements Consumer<T> {
 	}
 
 	/**
-	 * Pushes identifiers onto the queue that feeds the stream.
+	 * Pushes identifiers onto the queue that feeds the stream, waiting while the buffer is full.
 	 *
 	 * @param value
 	 */
@@ -88,27 +101,18 @@ public abstract class AbstractSource<T> implements Consumer<T> {
 	}
 
 	/**
-	 * This spliterator provides the ability to create the stream out of the queue provided by the search supplier.
-	 * Because the source of the queue is an asynchronous SOLR feed the spliterator needs to be told when there is no more content.
+	 * This spliterator provides the ability to create the stream out of the buffer provided by the search supplier.
+	 * Because the source of the buffer is an asynchronous SOLR feed the spliterator ends when the buffer has been closed and drained.
 	 */
 	private class QueuedSpliterator implements Spliterator<T> {
-		private final BlockingQueue<T> queue;
-		private boolean hasMoreContent;
+		private final RingBuffer<T> buffer;
 
-		public QueuedSpliterator(BlockingQueue<T> queue) {
-			this.queue = queue;
-			hasMoreContent = true;
+		public QueuedSpliterator(RingBuffer<T> buffer) {
+			this.buffer = buffer;
 		}
 
 		/**
-		 * Allows the external source of the content being fed into the queue to notify the spliterator that there will be no more content provided.
-		 */
-		public void complete() {
-			hasMoreContent = false;
-		}
-
-		/**
-		 * Pulls from the queue to add to the stream.
+		 * Takes from the buffer to add to the stream, waiting while it is empty and open.
 		 *
 		 * @param action
 		 * @return
@@ -116,31 +120,33 @@ public abstract class AbstractSource<T> implements Consumer<T> {
 		@Override
 		public boolean tryAdvance(Consumer<? super T> action) {
 			try {
-				while (queue.size() > 0 || hasMoreContent) {
-					T result = queue.poll(100L, TimeUnit.MILLISECONDS);
-					if (null != result) {
-						action.accept(result);
-						return queue.size() > 0 || hasMoreContent;
-					}
+				T result = buffer.take();
+				if (result == null) {
+					return false;
 				}
+				action.accept(result);
+				return true;
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
 				throw new IllegalStateException("Things are going wrong while streaming. (tryAdvance)", e);
 			}
-			return hasMoreContent;
 		}
 
 		/**
-		 * Takes the current contents of the queue as a separate stream.
+		 * Takes the current contents of the buffer as a separate stream.
 		 *
 		 * @return
 		 */
 		@Override
 		public Spliterator<T> trySplit() {
 			try {
-				List<T> splitSet = new ArrayList<>(queue.size() + 1);
-				splitSet.add(queue.take());
-				queue.drainTo(splitSet);
+				T first = buffer.take();
+				if (first == null) {
+					return null;
+				}
+				List<T> splitSet = new ArrayList<>(buffer.size() + 1);
+				splitSet.add(first);
+				buffer.drainTo(splitSet, buffer.capacity());
 				return splitSet.spliterator();
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
@@ -0,0 +1,81 @@
+package pqe.ecms.reindexer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Grows the batches while they are published within a target time and shrinks them once they are not. <br/>
+ * The target size is raised by a twentieth of the range for every batch published in time and cut by a quarter for every batch that was slow,
+ * so the size settles just below the point where the downstream starts to fall behind.  Batches are also closed by a {@link ByteBatchSizePolicy}
+ * so the byte budget is never exceeded whatever the target.
+ */
+public class AdaptiveBatchSizePolicy implements BatchSizePolicy {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveBatchSizePolicy.class);
+
+	private final int minBatchSize;
+	private final int maxBatchSize;
+	private final int step;
+	private final long targetNanos;
+	private final ByteBatchSizePolicy byteBudget;
+
+	private volatile int targetSize;
+
+	/**
+	 * @param minBatchSize The smallest target size.
+	 * @param maxBatchSize The largest target size.
+	 * @param targetNanos  How long publishing a batch may take.
+	 * @param byteBudget   Closes the batches that would outgrow the message size.
+	 */
+	public AdaptiveBatchSizePolicy(int minBatchSize, int maxBatchSize, long targetNanos, ByteBatchSizePolicy byteBudget) {
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.minBatchSize = Math.max(1, Math.min(minBatchSize, this.maxBatchSize));
+		this.step = Math.max(1, (this.maxBatchSize - this.minBatchSize) / 20);
+		this.targetNanos = targetNanos;
+		this.byteBudget = byteBudget;
+		this.targetSize = this.minBatchSize;
+	}
+
+	@Override
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	@Override
+	public boolean add(long documentId, int length) {
+		return byteBudget.add(documentId, length) || length >= targetSize;
+	}
+
+	@Override
+	public void reset() {
+		byteBudget.reset();
+	}
+
+	/**
+	 * Only a batch of about the target size says anything about the target, the short batches closed by the byte budget or at the end are ignored.
+	 *
+	 * @param length
+	 * @param nanos
+	 */
+	@Override
+	public synchronized void onPublished(int length, long nanos) {
+		int current = targetSize;
+		if (length < current - step) {
+			return;
+		}
+		int next = nanos <= targetNanos ? Math.min(maxBatchSize, current + step) : Math.max(minBatchSize, current - current / 4);
+		if (next != current) {
+			targetSize = next;
+			LOGGER.debug("Batch of {} published in {} ms, target size now {}", length, nanos / 1_000_000, next);
+		}
+	}
+
+	public int getTargetSize() {
+		return targetSize;
+	}
+
+	@Override
+	public String toString() {
+		return "adaptive(" + minBatchSize + ".." + maxBatchSize + ", target " + targetSize + ", " + byteBudget + ")";
+	}
+}
@@ -0,0 +1,36 @@
+package pqe.ecms.reindexer;
+
+/**
+ * Decides when a batch of {@link LongQueueBatching} is closed. <br/>
+ * A policy is fed the ids of one batch at a time by the batching thread, while the feedback on published batches may arrive from any thread.
+ */
+public interface BatchSizePolicy {
+
+	/**
+	 * @return The most ids a batch can ever hold, the size of the array the batch is collected in.
+	 */
+	int getMaxBatchSize();
+
+	/**
+	 * Adds an id to the batch being collected.
+	 *
+	 * @param documentId
+	 * @param length     The number of ids in the batch, including this one.
+	 * @return Whether the batch is full and has to be closed.
+	 */
+	boolean add(long documentId, int length);
+
+	/**
+	 * Starts collecting the next batch.
+	 */
+	void reset();
+
+	/**
+	 * Reports how long a batch took to be accepted downstream.
+	 *
+	 * @param length
+	 * @param nanos
+	 */
+	default void onPublished(int length, long nanos) {
+	}
+}
@@ -0,0 +1,41 @@
+package pqe.ecms.reindexer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Parks waiting threads until they are signalled, so they use no CPU while waiting and wake as soon as the other side moves. <br/>
+ * A waiter registers itself before checking its condition a last time and the signal is given after the change is published,
+ * so a wake up can't be lost in between.  Signalling costs a single read while nobody waits.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+	private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+	@Override
+	public void await(BooleanSupplier condition) throws InterruptedException {
+		Thread current = Thread.currentThread();
+		while (!condition.getAsBoolean()) {
+			waiters.add(current);
+			try {
+				if (!condition.getAsBoolean()) {
+					LockSupport.park(this);
+				}
+			} finally {
+				waiters.remove(current);
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	@Override
+	public void signal() {
+		if (!waiters.isEmpty()) {
+			waiters.forEach(LockSupport::unpark);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package pqe.ecms.reindexer;
+
+/**
+ * Closes a batch before its encoded message could outgrow a byte budget, e.g. the 256KB SQS limit, or at a number of ids. <br/>
+ * The size is estimated per id with {@link QueueMessageCodec#estimateSize(long, long, QueueMessageCodec.Format)}, which never underestimates,
+ * and the batch is closed as soon as the next id might not fit.  A deflated message is budgeted at its uncompressed size.
+ */
+public class ByteBatchSizePolicy implements BatchSizePolicy {
+
+	/**
+	 * The most bytes a single id can add in any format: a sign, 19 digits and a comma.
+	 */
+	private static final int MAX_ID_SIZE = 21;
+
+	private final int maxBatchSize;
+	private final int maxBytes;
+	private final QueueMessageCodec.Format format;
+
+	private long previousId;
+	private int payloadSize;
+
+	/**
+	 * @param maxBatchSize The most ids of a batch.
+	 * @param maxBytes     The most characters of an encoded message.
+	 * @param format       The format the batches are encoded in.
+	 */
+	public ByteBatchSizePolicy(int maxBatchSize, int maxBytes, QueueMessageCodec.Format format) {
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.maxBytes = maxBytes;
+		this.format = format;
+		reset();
+	}
+
+	@Override
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	@Override
+	public boolean add(long documentId, int length) {
+		payloadSize += QueueMessageCodec.estimateSize(previousId, documentId, format);
+		previousId = documentId;
+		return length >= maxBatchSize || QueueMessageCodec.estimateLength(payloadSize + MAX_ID_SIZE, format) > maxBytes;
+	}
+
+	@Override
+	public void reset() {
+		previousId = 0;
+		payloadSize = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "bytes(" + maxBytes + ", " + format + ", max " + maxBatchSize + ")";
+	}
+}
@@ -0,0 +1,32 @@
+package pqe.ecms.reindexer;
+
+/**
+ * Closes every batch at the same number of ids.
+ */
+public class CountBatchSizePolicy implements BatchSizePolicy {
+
+	private final int batchSize;
+
+	public CountBatchSizePolicy(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	@Override
+	public int getMaxBatchSize() {
+		return batchSize;
+	}
+
+	@Override
+	public boolean add(long documentId, int length) {
+		return length >= batchSize;
+	}
+
+	@Override
+	public void reset() {
+	}
+
+	@Override
+	public String toString() {
+		return "count(" + batchSize + ")";
+	}
+}
@@ -0,0 +1,81 @@
+package pqe.ecms.reindexer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The documents that failed to index, as sent to the failure queue by the consumer and replayed from it by the supplier. <br/>
+ * Serialized with Jackson as <b>{"failures":[{"documentId":...,"stage":...,"reason":...,"attempts":...}]}</b>.
+ */
+public class FailureMessage {
+
+	private List<Failure> failures = new ArrayList<>();
+
+	public FailureMessage() {}
+
+	public FailureMessage(List<Failure> failures) {
+		this.failures = failures;
+	}
+
+	public List<Failure> getFailures() {
+		return failures;
+	}
+
+	public void setFailures(List<Failure> failures) {
+		this.failures = failures;
+	}
+
+	public static class Failure {
+		private long documentId;
+		private String stage;
+		private String reason;
+		private int attempts;
+
+		public Failure() {}
+
+		public Failure(long documentId, String stage, String reason, int attempts) {
+			this.documentId = documentId;
+			this.stage = stage;
+			this.reason = reason;
+			this.attempts = attempts;
+		}
+
+		public long getDocumentId() {
+			return documentId;
+		}
+
+		public void setDocumentId(long documentId) {
+			this.documentId = documentId;
+		}
+
+		/**
+		 * @return The name of the stage the document failed in.
+		 */
+		public String getStage() {
+			return stage;
+		}
+
+		public void setStage(String stage) {
+			this.stage = stage;
+		}
+
+		public String getReason() {
+			return reason;
+		}
+
+		public void setReason(String reason) {
+			this.reason = reason;
+		}
+
+		/**
+		 * @return The number of times the document has failed to index, including this failure.
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+
+		public void setAttempts(int attempts) {
+			this.attempts = attempts;
+		}
+	}
+}
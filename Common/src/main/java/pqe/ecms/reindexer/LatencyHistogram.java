@@ -0,0 +1,129 @@
+package pqe.ecms.reindexer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations. <br/>
+ * Every power of two is split into eight buckets, so recording is a couple of bit operations and an atomic increment
+ * and percentiles are accurate to within an eighth of the value.  The maximum is kept exactly.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Records a duration measured with {@link System#nanoTime()}.
+	 *
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0L);
+		buckets.incrementAndGet(bucketOf(value));
+		count.increment();
+		totalNanos.add(value);
+		maxNanos.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Records the time since the start time taken from {@link System#nanoTime()}.
+	 *
+	 * @param startNanos
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	public long getCount() {
+		return count.longValue();
+	}
+
+	public long getMeanNanos() {
+		long samples = count.longValue();
+		return samples == 0 ? 0 : totalNanos.longValue() / samples;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * Returns the upper bound of the bucket holding the percentile, capped at the maximum recorded.
+	 *
+	 * @param percentile Between 0 and 100.
+	 * @return
+	 */
+	public long getPercentileNanos(double percentile) {
+		long samples = 0;
+		long[] counts = new long[buckets.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+			samples += counts[i];
+		}
+		if (samples == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1L, (long) Math.ceil(samples * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+
+	/**
+	 * Summarizes the histogram in milliseconds for status logging.
+	 *
+	 * @return
+	 */
+	@Override
+	public String toString() {
+		return String.format("n=%d, p50=%.1fms, p95=%.1fms, p99=%.1fms, max=%.1fms",
+				getCount(), toMillis(getPercentileNanos(50)), toMillis(getPercentileNanos(95)), toMillis(getPercentileNanos(99)), toMillis(getMaxNanos()));
+	}
+
+	/**
+	 * Summarizes the histogram as plain values, for a histogram of sizes rather than durations.
+	 *
+	 * @return
+	 */
+	public String describeValues() {
+		return String.format("n=%d, mean=%d, p50=%d, p95=%d, max=%d",
+				getCount(), getMeanNanos(), getPercentileNanos(50), getPercentileNanos(95), getMaxNanos());
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		long lowerBound = (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
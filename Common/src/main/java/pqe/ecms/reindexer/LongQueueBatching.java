@@ -0,0 +1,166 @@
+package pqe.ecms.reindexer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+
+/**
+ * The primitive counterpart of {@link QueueBatching}, collecting a {@link LongStream} into batches in a single reusable array. <br/>
+ * The array is handed to the {@link BatchConsumer} and refilled as soon as it returns, so the consumer has to copy or encode the batch
+ * before returning, e.g. with {@link QueueMessageCodec#encode(long[], int)}.
+ * When a batch is closed is up to the {@link BatchSizePolicy}, the sizes of the batches are recorded in a histogram.
+ * With a linger time a timer also closes the batch once its first id has waited that long, so a trickling stream is published
+ * without waiting for the next id.  The batch is then guarded by a lock, without a linger time it is only touched by the streaming thread.
+ */
+public class LongQueueBatching {
+	private final static Logger LOGGER = LoggerFactory.getLogger(LongQueueBatching.class);
+
+	private final BatchSizePolicy policy;
+	private final long lingerNanos;
+	private final BatchConsumer batchSubmitter;
+	private final LongAdder batchCount;
+	private final LongAdder itemCount;
+	private final LongAdder lingerCount = new LongAdder();
+	private final LatencyHistogram batchSizes = new LatencyHistogram();
+
+	private long[] batch;
+	private int length;
+	private long firstNanos;
+
+	public LongQueueBatching(int batchSize, BatchConsumer batchSubmitter) {
+		this(new CountBatchSizePolicy(batchSize), batchSubmitter);
+	}
+
+	public LongQueueBatching(BatchSizePolicy policy, BatchConsumer batchSubmitter) {
+		this(policy, 0, batchSubmitter);
+	}
+
+	/**
+	 * @param policy
+	 * @param lingerMillis   The longest an id waits in a partial batch before the batch is submitted, 0 to only submit full batches.
+	 * @param batchSubmitter
+	 */
+	public LongQueueBatching(BatchSizePolicy policy, long lingerMillis, BatchConsumer batchSubmitter) {
+		this.policy = policy;
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+		this.batchSubmitter = batchSubmitter;
+		this.batchCount = new LongAdder();
+		this.itemCount = new LongAdder();
+	}
+
+	/**
+	 * Batches the stream in encounter order, on the calling thread.  Only the lingering partial batches are submitted by the timer thread.
+	 *
+	 * @param content
+	 */
+	public void indexContent(LongStream content) {
+		batch = new long[policy.getMaxBatchSize()];
+		length = 0;
+		policy.reset();
+
+		if (lingerNanos <= 0) {
+			content.sequential().forEach(this::add);
+			submitPending();
+		} else {
+			ScheduledExecutorService lingerService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "batch-linger");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(TimeUnit.MILLISECONDS.toNanos(1), lingerNanos / 4);
+			lingerService.scheduleWithFixedDelay(this::linger, period, period, TimeUnit.NANOSECONDS);
+			try {
+				content.sequential().forEach(id -> {
+					synchronized (this) {
+						add(id);
+					}
+				});
+				synchronized (this) {
+					submitPending();
+				}
+			} finally {
+				lingerService.shutdownNow();
+			}
+		}
+		LOGGER.debug("Batched {} items in {} batches", itemCount.longValue(), batchCount.longValue());
+	}
+
+	public int getBatchCount() {
+		return batchCount.intValue();
+	}
+
+	public long getItemsCount() {
+		return itemCount.longValue();
+	}
+
+	public BatchSizePolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return The number of ids of every batch submitted.
+	 */
+	public LatencyHistogram getBatchSizes() {
+		return batchSizes;
+	}
+
+	/**
+	 * Summarizes the batches for status logging.
+	 *
+	 * @return
+	 */
+	public String getStatistics() {
+		return String.format("batches=%d, ids=%d, lingered=%d, batchSize[%s], policy=%s",
+				batchCount.longValue(), itemCount.longValue(), lingerCount.longValue(), batchSizes.describeValues(), policy);
+	}
+
+	/**
+	 * @return The number of partial batches submitted because their first id had lingered too long.
+	 */
+	public long getLingerCount() {
+		return lingerCount.longValue();
+	}
+
+	private void add(long id) {
+		if (length == 0) {
+			firstNanos = System.nanoTime();
+		}
+		batch[length++] = id;
+		if (policy.add(id, length) || length == batch.length) {
+			submitPending();
+		}
+	}
+
+	private synchronized void linger() {
+		if (length > 0 && System.nanoTime() - firstNanos >= lingerNanos) {
+			lingerCount.increment();
+			submitPending();
+		}
+	}
+
+	private void submitPending() {
+		if (length == 0) {
+			return;
+		}
+		batchSubmitter.accept(batch, length);
+		batchCount.increment();
+		itemCount.add(length);
+		batchSizes.record(length);
+		length = 0;
+		policy.reset();
+	}
+
+	@FunctionalInterface
+	public interface BatchConsumer {
+		/**
+		 * @param batch  Only valid until the call returns.
+		 * @param length The number of ids at the start of the array that make up the batch.
+		 */
+		void accept(long[] batch, int length);
+	}
+}
@@ -0,0 +1,41 @@
+package pqe.ecms.reindexer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Spins briefly, then yields, then parks for growing intervals of up to a millisecond between checks of the condition. <br/>
+ * Signalling is free, which suits hand-offs that are rarely empty or full, at the cost of that much latency once a wait gets long.
+ */
+public class ParkingWaitStrategy implements WaitStrategy {
+
+	private static final int SPINS = 100;
+	private static final int YIELDS = 100;
+	private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Override
+	public void await(BooleanSupplier condition) throws InterruptedException {
+		int attempts = 0;
+		long parkNanos = MIN_PARK_NANOS;
+		while (!condition.getAsBoolean()) {
+			if (attempts < SPINS) {
+				attempts++;
+			} else if (attempts < SPINS + YIELDS) {
+				attempts++;
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(this, parkNanos);
+				parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	@Override
+	public void signal() {
+	}
+}
@@ -1,24 +1,75 @@
 package pqe.ecms.reindexer;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * The document ids carried by one SQS message, held as a primitive array. <br/>
+ * Use {@link QueueMessageCodec} to encode and decode message bodies without boxing, the list accessors remain for existing callers.
+ */
 public class QueueMessage {
 
-	private List<Long> documentIdList = new ArrayList<>();
+	private long[] documentIds = new long[0];
+	private int attempts;
 
 	public QueueMessage() {}
 
 	public QueueMessage(List<Long> list) {
-		documentIdList = new ArrayList<>(list.size());
-		documentIdList.addAll(list);
+		setDocumentIdList(list);
+	}
+
+	/**
+	 * @param documentIds Copied, so the array can be reused by the caller.
+	 * @param length      The number of ids at the start of the array that belong to the message.
+	 */
+	public QueueMessage(long[] documentIds, int length) {
+		this.documentIds = Arrays.copyOf(documentIds, length);
 	}
 
+	/**
+	 * @param documentIds Copied, so the array can be reused by the caller.
+	 * @param length      The number of ids at the start of the array that belong to the message.
+	 * @param attempts    The number of times the documents have failed to index before.
+	 */
+	public QueueMessage(long[] documentIds, int length, int attempts) {
+		this(documentIds, length);
+		this.attempts = attempts;
+	}
+
+	@JsonIgnore
+	public long[] getDocumentIds() {
+		return documentIds;
+	}
+
+	/**
+	 * @return A boxed copy of the document ids.
+	 */
 	public List<Long> getDocumentIdList() {
+		List<Long> documentIdList = new ArrayList<>(documentIds.length);
+		for (long documentId : documentIds) {
+			documentIdList.add(documentId);
+		}
 		return documentIdList;
 	}
 
 	public void setDocumentIdList(List<Long> documentIdList) {
-		this.documentIdList = documentIdList;
+		documentIds = new long[documentIdList.size()];
+		for (int i = 0; i < documentIds.length; i++) {
+			documentIds[i] = documentIdList.get(i);
+		}
+	}
+
+	/**
+	 * @return The number of times the documents have failed to index before, 0 unless the message was replayed from the failure queue.
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
 	}
 }
@@ -0,0 +1,340 @@
+package pqe.ecms.reindexer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes and decodes {@link QueueMessage} bodies straight from and into primitive arrays, in one of the {@link Format}s. <br/>
+ * The JSON format is the one the message has always been serialized as, <b>{"documentIdList":[...]}</b>, followed by <b>"attempts"</b> for replayed messages.
+ * The binary format is base64 text, which never starts with the <b>{</b> of a JSON body, so {@link #decode(String)} accepts either.
+ * <br/>
+ * Binary layout: a version byte, a flags byte, the attempts as a varint when flagged, the uncompressed payload length as a varint when deflated, then the payload of
+ * the id count followed by every id as the zigzag varint of its difference to the previous id.  The ids come out of the database
+ * sorted, so most differences fit in one or two bytes whichever way they are sorted.
+ */
+public class QueueMessageCodec {
+
+	public enum Format {
+		/**
+		 * The legacy JSON body, readable by any consumer.
+		 */
+		JSON,
+		/**
+		 * Delta varints, base64 encoded.
+		 */
+		BINARY,
+		/**
+		 * Delta varints, deflated and base64 encoded.
+		 */
+		DEFLATE
+	}
+
+	private static final String DOCUMENT_ID_LIST = "documentIdList";
+	private static final String ATTEMPTS = "attempts";
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private static final byte VERSION = 1;
+	private static final int FLAG_DEFLATED = 1;
+	private static final int FLAG_ATTEMPTS = 2;
+	private static final int MAX_VARINT_BYTES = 10;
+	private static final int MAX_PAYLOAD_BYTES = 64 * 1024 * 1024;
+
+	private QueueMessageCodec() {
+	}
+
+	/**
+	 * @param documentIds
+	 * @param length      The number of ids at the start of the array that belong to the message.
+	 * @return The message body.
+	 */
+	public static String encode(long[] documentIds, int length) {
+		return encodeJson(documentIds, length, 0);
+	}
+
+	private static String encodeJson(long[] documentIds, int length, int attempts) {
+		StringBuilder body = new StringBuilder(24 + length * 10);
+		body.append("{\"").append(DOCUMENT_ID_LIST).append("\":[");
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				body.append(',');
+			}
+			body.append(documentIds[i]);
+		}
+		body.append(']');
+		if (attempts > 0) {
+			body.append(",\"").append(ATTEMPTS).append("\":").append(attempts);
+		}
+		return body.append('}').toString();
+	}
+
+	public static String encode(QueueMessage message) {
+		return encodeJson(message.getDocumentIds(), message.getDocumentIds().length, message.getAttempts());
+	}
+
+	/**
+	 * @param documentIds
+	 * @param length      The number of ids at the start of the array that belong to the message.
+	 * @param format
+	 * @return The message body.
+	 */
+	public static String encode(long[] documentIds, int length, Format format) {
+		return encode(documentIds, length, format, 0);
+	}
+
+	/**
+	 * @param documentIds
+	 * @param length      The number of ids at the start of the array that belong to the message.
+	 * @param format
+	 * @param attempts    The number of times the documents have failed to index before.
+	 * @return The message body.
+	 */
+	public static String encode(long[] documentIds, int length, Format format, int attempts) {
+		switch (format) {
+			case BINARY:
+				return encodeBinary(documentIds, length, false, attempts);
+			case DEFLATE:
+				return encodeBinary(documentIds, length, true, attempts);
+			default:
+				return encodeJson(documentIds, length, attempts);
+		}
+	}
+
+	/**
+	 * Estimates the bytes an id adds to the payload of a body, never less than it actually adds.
+	 * Deflated payloads are estimated before compression, {@link #estimateLength(int, Format)} turns the payload into the length of the body.
+	 *
+	 * @param previousId The id before it in the message, 0 for the first id.
+	 * @param documentId
+	 * @param format
+	 * @return
+	 */
+	public static int estimateSize(long previousId, long documentId, Format format) {
+		if (format == Format.JSON) {
+			return decimalLength(documentId) + 1;
+		}
+		long delta = documentId - previousId;
+		long zigzag = (delta << 1) ^ (delta >> 63);
+		return zigzag == 0 ? 1 : (63 - Long.numberOfLeadingZeros(zigzag)) / 7 + 1;
+	}
+
+	/**
+	 * Estimates the characters of a body from the sum of the {@link #estimateSize(long, long, Format)} of its ids, never less than it actually takes.
+	 *
+	 * @param payloadSize
+	 * @param format
+	 * @return
+	 */
+	public static int estimateLength(int payloadSize, Format format) {
+		if (format == Format.JSON) {
+			return DOCUMENT_ID_LIST.length() + 8 + payloadSize;
+		}
+		int messageSize = 2 + 2 * MAX_VARINT_BYTES + payloadSize;
+		return (messageSize + 2) / 3 * 4;
+	}
+
+	private static int decimalLength(long value) {
+		if (value < 0) {
+			return value == Long.MIN_VALUE ? 20 : decimalLength(-value) + 1;
+		}
+		int length = 1;
+		for (long bound = 10; length < 19 && value >= bound; bound *= 10) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Decodes a body in any of the formats.
+	 *
+	 * @param body
+	 * @return
+	 * @throws IOException When the body isn't a queue message.
+	 */
+	public static QueueMessage decode(String body) throws IOException {
+		if (body.isEmpty()) {
+			throw new IOException("Empty queue message");
+		}
+		if (body.charAt(0) == '{') {
+			return decodeJson(body);
+		}
+		return decodeBinary(body);
+	}
+
+	private static String encodeBinary(long[] documentIds, int length, boolean deflate, int attempts) {
+		byte[] payload = new byte[MAX_VARINT_BYTES * (length + 1)];
+		int size = writeVarint(payload, 0, length);
+		long previous = 0;
+		for (int i = 0; i < length; i++) {
+			long delta = documentIds[i] - previous;
+			size = writeVarint(payload, size, (delta << 1) ^ (delta >> 63));
+			previous = documentIds[i];
+		}
+
+		byte[] header = new byte[2 + MAX_VARINT_BYTES];
+		header[0] = VERSION;
+		header[1] = (byte) ((deflate ? FLAG_DEFLATED : 0) | (attempts > 0 ? FLAG_ATTEMPTS : 0));
+		int headerSize = attempts > 0 ? writeVarint(header, 2, attempts) : 2;
+
+		byte[] message;
+		int messageSize;
+		if (deflate) {
+			message = new byte[headerSize + MAX_VARINT_BYTES + size + size / 1000 + 64];
+			messageSize = writeVarint(message, headerSize, size);
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				deflater.setInput(payload, 0, size);
+				deflater.finish();
+				while (!deflater.finished()) {
+					if (messageSize == message.length) {
+						message = Arrays.copyOf(message, message.length * 2);
+					}
+					messageSize += deflater.deflate(message, messageSize, message.length - messageSize);
+				}
+			} finally {
+				deflater.end();
+			}
+		} else {
+			message = new byte[headerSize + size];
+			System.arraycopy(payload, 0, message, headerSize, size);
+			messageSize = message.length;
+		}
+		System.arraycopy(header, 0, message, 0, headerSize);
+
+		return Base64.getEncoder().encodeToString(messageSize == message.length ? message : Arrays.copyOf(message, messageSize));
+	}
+
+	private static QueueMessage decodeBinary(String body) throws IOException {
+		byte[] message;
+		try {
+			message = Base64.getDecoder().decode(body);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Malformed queue message, neither JSON nor base64", e);
+		}
+		if (message.length < 2) {
+			throw new IOException("Truncated queue message");
+		}
+		if (message[0] != VERSION) {
+			throw new IOException("Unsupported queue message version " + message[0]);
+		}
+
+		byte[] payload = message;
+		int[] position = {2};
+		long attempts = 0;
+		if ((message[1] & FLAG_ATTEMPTS) != 0) {
+			attempts = readVarint(message, position);
+			if (attempts < 0 || attempts > Integer.MAX_VALUE) {
+				throw new IOException("Malformed queue message, " + attempts + " attempts");
+			}
+		}
+		if ((message[1] & FLAG_DEFLATED) != 0) {
+			long size = readVarint(message, position);
+			if (size < 0 || size > MAX_PAYLOAD_BYTES) {
+				throw new IOException("Malformed queue message, payload of " + size + " bytes");
+			}
+			payload = new byte[(int) size];
+			Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(message, position[0], message.length - position[0]);
+				int inflated = 0;
+				while (inflated < payload.length && !inflater.finished()) {
+					int read = inflater.inflate(payload, inflated, payload.length - inflated);
+					if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					inflated += read;
+				}
+				if (inflated != payload.length) {
+					throw new IOException("Truncated queue message, inflated " + inflated + " of " + size + " bytes");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Malformed deflated queue message", e);
+			} finally {
+				inflater.end();
+			}
+			position[0] = 0;
+		}
+
+		long length = readVarint(payload, position);
+		if (length < 0 || length > payload.length - position[0]) {
+			throw new IOException("Malformed queue message, " + length + " ids in " + payload.length + " bytes");
+		}
+		long[] documentIds = new long[(int) length];
+		long previous = 0;
+		for (int i = 0; i < documentIds.length; i++) {
+			long zigzag = readVarint(payload, position);
+			previous += (zigzag >>> 1) ^ -(zigzag & 1);
+			documentIds[i] = previous;
+		}
+		return new QueueMessage(documentIds, documentIds.length, (int) attempts);
+	}
+
+	private static int writeVarint(byte[] buffer, int position, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+		return position;
+	}
+
+	private static long readVarint(byte[] buffer, int[] position) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (position[0] >= buffer.length) {
+				throw new IOException("Truncated queue message");
+			}
+			byte b = buffer[position[0]++];
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in queue message");
+	}
+
+	private static QueueMessage decodeJson(String body) throws IOException {
+		long[] documentIds = new long[128];
+		int length = 0;
+		int attempts = 0;
+
+		try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+			expect(parser.nextToken(), JsonToken.START_OBJECT);
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if (ATTEMPTS.equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+					attempts = parser.getIntValue();
+					continue;
+				}
+				if (!DOCUMENT_ID_LIST.equals(field)) {
+					parser.skipChildren();
+					continue;
+				}
+
+				expect(value, JsonToken.START_ARRAY);
+				while ((value = parser.nextToken()) == JsonToken.VALUE_NUMBER_INT) {
+					if (length == documentIds.length) {
+						documentIds = Arrays.copyOf(documentIds, length * 2);
+					}
+					documentIds[length++] = parser.getLongValue();
+				}
+				expect(value, JsonToken.END_ARRAY);
+			}
+		}
+		return new QueueMessage(documentIds, length, attempts);
+	}
+
+	private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+		if (actual != expected) {
+			throw new IOException("Malformed queue message, expected " + expected + " but found " + actual);
+		}
+	}
+}
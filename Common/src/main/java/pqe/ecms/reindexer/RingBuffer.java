@@ -0,0 +1,193 @@
+package pqe.ecms.reindexer;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer queue that can be closed to signal the end of the stream. <br/>
+ * Every slot carries a sequence number telling producers and consumers whether it is theirs to fill or empty, so both sides only contend
+ * on a compare-and-set of their own position.  Threads that find the buffer full or empty wait through a {@link WaitStrategy},
+ * one for producers and one for consumers, and are signalled as soon as the other side moves.
+ *
+ * @param <E>
+ */
+public class RingBuffer<E> {
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<E> items;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	private final WaitStrategy notEmpty;
+	private final WaitStrategy notFull;
+	private volatile boolean closed;
+
+	/**
+	 * @param capacity     Rounded up to a power of two of at least two, a single slot can't tell a filled slot from a free one.
+	 * @param waitStrategy Creates the strategy producers and consumers wait with.
+	 */
+	public RingBuffer(int capacity, Supplier<WaitStrategy> waitStrategy) {
+		this.capacity = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+		this.mask = this.capacity - 1;
+		this.items = new AtomicReferenceArray<>(this.capacity);
+		this.sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			sequences.set(i, i);
+		}
+		this.notEmpty = waitStrategy.get();
+		this.notFull = waitStrategy.get();
+	}
+
+	/**
+	 * Adds the item if there is room.
+	 *
+	 * @param item
+	 * @return false when the buffer is full.
+	 */
+	public boolean offer(E item) {
+		long position = tail.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					items.lazySet(index, item);
+					sequences.set(index, position + 1);
+					notEmpty.signal();
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				return false;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Adds the item, waiting for room when the buffer is full.
+	 *
+	 * @param item
+	 * @throws InterruptedException
+	 * @throws IllegalStateException When the buffer has been closed.
+	 */
+	public void put(E item) throws InterruptedException {
+		while (true) {
+			if (closed) {
+				throw new IllegalStateException("The ring buffer has been closed");
+			}
+			if (offer(item)) {
+				return;
+			}
+			notFull.await(() -> closed || size() < capacity);
+		}
+	}
+
+	/**
+	 * Removes the next item if there is one.
+	 *
+	 * @return null when the buffer is empty.
+	 */
+	public E poll() {
+		long position = head.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					E item = items.get(index);
+					items.lazySet(index, null);
+					sequences.set(index, position + capacity);
+					notFull.signal();
+					return item;
+				}
+				position = head.get();
+			} else if (difference < 0) {
+				return null;
+			} else {
+				position = head.get();
+			}
+		}
+	}
+
+	/**
+	 * Removes the next item, waiting for one while the buffer is open.
+	 *
+	 * @return null once the buffer has been closed and drained.
+	 * @throws InterruptedException
+	 */
+	public E take() throws InterruptedException {
+		while (true) {
+			E item = poll();
+			if (item != null) {
+				return item;
+			}
+			if (closed && isEmpty()) {
+				return null;
+			}
+			notEmpty.await(() -> closed || !isEmpty());
+		}
+	}
+
+	/**
+	 * Moves the items currently in the buffer into the collection without waiting.
+	 *
+	 * @param collection
+	 * @param maxItems
+	 * @return The number of items moved.
+	 */
+	public int drainTo(Collection<? super E> collection, int maxItems) {
+		int drained = 0;
+		E item;
+		while (drained < maxItems && (item = poll()) != null) {
+			collection.add(item);
+			drained++;
+		}
+		return drained;
+	}
+
+	/**
+	 * Ends the stream, called once the producers are done.  Consumers still take the remaining items before they see the end
+	 * and producers waiting for room fail.
+	 */
+	public void close() {
+		closed = true;
+		notEmpty.signal();
+		notFull.signal();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Waits until the consumers have taken every item.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void awaitEmpty() throws InterruptedException {
+		notFull.await(this::isEmpty);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return The number of items added and not yet taken, including items that are still being written.
+	 */
+	public int size() {
+		long consumed = head.get();
+		return (int) Math.max(0, tail.get() - consumed);
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+}
@@ -8,11 +8,23 @@ public class SqlConfig {
 	private String url;
 	private Direction direction;
 
+	private int minPoolSize;
+	private int maxPoolSize;
+	private long maxPoolWaitMillis;
+	private String validationQuery;
+	private int statementCacheSize;
+
 	public SqlConfig(Properties sqlProperties) {
 		this.username = sqlProperties.getProperty("db.username", sqlProperties.getProperty("javax.persistence.jdbc.user"));
 		this.password = sqlProperties.getProperty("db.password", sqlProperties.getProperty("javax.persistence.jdbc.password"));
 		this.url = sqlProperties.getProperty("db.url", sqlProperties.getProperty("javax.persistence.jdbc.url"));
 		this.direction = Direction.DESC;
+
+		this.minPoolSize = Integer.parseInt(sqlProperties.getProperty("db.pool.min", "1"));
+		this.maxPoolSize = Integer.parseInt(sqlProperties.getProperty("db.pool.max", "16"));
+		this.maxPoolWaitMillis = Long.parseLong(sqlProperties.getProperty("db.pool.maxWaitMillis", "30000"));
+		this.validationQuery = sqlProperties.getProperty("db.pool.validationQuery", "SELECT 1");
+		this.statementCacheSize = Integer.parseInt(sqlProperties.getProperty("db.pool.statementCache", "64"));
 	}
 
 	public String getUsername() {
@@ -51,4 +63,49 @@ public class SqlConfig {
 	public void setDirection(Direction direction) {
 		this.direction = direction;
 	}
+
+	public int getMinPoolSize() {
+		return minPoolSize;
+	}
+
+	public void setMinPoolSize(int minPoolSize) {
+		this.minPoolSize = minPoolSize;
+	}
+
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	public void setMaxPoolSize(int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	public long getMaxPoolWaitMillis() {
+		return maxPoolWaitMillis;
+	}
+
+	public void setMaxPoolWaitMillis(long maxPoolWaitMillis) {
+		this.maxPoolWaitMillis = maxPoolWaitMillis;
+	}
+
+	public String getValidationQuery() {
+		return validationQuery;
+	}
+
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	/**
+	 * The number of prepared statements cached per pooled connection, 0 disables the cache.
+	 *
+	 * @return
+	 */
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
 }
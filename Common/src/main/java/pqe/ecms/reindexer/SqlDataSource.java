@@ -0,0 +1,168 @@
+package pqe.ecms.reindexer;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pooled {@link DataSource} built from a {@link SqlConfig}. <br/>
+ * Connections are validated when borrowed, prepared statements are cached per connection and the time spent waiting on the pool is recorded.
+ * Use {@link #getInstance(SqlConfig)} so every reader of the same database shares one pool.
+ */
+public class SqlDataSource implements DataSource {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SqlDataSource.class);
+
+	private static Map<String, SqlDataSource> dataSourceMap = new ConcurrentHashMap<>();
+
+	private final BasicDataSource pool;
+
+	private final LongAdder borrowCount = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * Get the shared pool for the database and user of the config, creating it on first use.
+	 *
+	 * @param config
+	 * @return
+	 */
+	public static SqlDataSource getInstance(SqlConfig config) {
+		return dataSourceMap.computeIfAbsent(config.getUsername() + "@" + config.getUrl(), key -> new SqlDataSource(config));
+	}
+
+	public SqlDataSource(SqlConfig config) {
+		pool = new BasicDataSource();
+		pool.setUrl(config.getUrl());
+		pool.setUsername(config.getUsername());
+		pool.setPassword(config.getPassword());
+
+		pool.setInitialSize(config.getMinPoolSize());
+		pool.setMinIdle(config.getMinPoolSize());
+		pool.setMaxIdle(config.getMaxPoolSize());
+		pool.setMaxActive(config.getMaxPoolSize());
+		pool.setMaxWait(config.getMaxPoolWaitMillis());
+
+		pool.setValidationQuery(config.getValidationQuery());
+		pool.setValidationQueryTimeout(5);
+		pool.setTestOnBorrow(true);
+		pool.setTestWhileIdle(true);
+		pool.setTimeBetweenEvictionRunsMillis(TimeUnit.MINUTES.toMillis(1));
+
+		pool.setPoolPreparedStatements(config.getStatementCacheSize() > 0);
+		pool.setMaxOpenPreparedStatements(config.getStatementCacheSize());
+
+		LOGGER.info("Created SQL connection pool for {}@{} with {} to {} connections", config.getUsername(), config.getUrl(), config.getMinPoolSize(), config.getMaxPoolSize());
+	}
+
+	/**
+	 * Borrows a connection from the pool, closing the connection returns it.
+	 *
+	 * @return
+	 * @throws SQLException When no connection became available within the configured wait.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		long startTime = System.nanoTime();
+		Connection connection = pool.getConnection();
+		long waited = System.nanoTime() - startTime;
+
+		borrowCount.increment();
+		waitNanos.add(waited);
+		maxWaitNanos.accumulateAndGet(waited, Math::max);
+		return connection;
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Connections are only available for the configured user");
+	}
+
+	public int getActiveConnections() {
+		return pool.getNumActive();
+	}
+
+	public int getIdleConnections() {
+		return pool.getNumIdle();
+	}
+
+	public long getBorrowCount() {
+		return borrowCount.longValue();
+	}
+
+	public long getAverageWaitMicros() {
+		long count = borrowCount.longValue();
+		return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(waitNanos.longValue() / count);
+	}
+
+	public long getMaxWaitMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get());
+	}
+
+	/**
+	 * Summarizes the pool for status logging.
+	 *
+	 * @return
+	 */
+	public String getStatistics() {
+		return String.format("sqlActive=%d, sqlIdle=%d, sqlBorrowed=%d, sqlWaitAvgUs=%d, sqlWaitMaxUs=%d",
+				getActiveConnections(), getIdleConnections(), getBorrowCount(), getAverageWaitMicros(), getMaxWaitMicros());
+	}
+
+	public void close() {
+		try {
+			pool.close();
+		} catch (SQLException e) {
+			LOGGER.warn("Exception closing SQL connection pool", e);
+		}
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return pool.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		pool.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		pool.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return pool.getLoginTimeout();
+	}
+
+	@Override
+	public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return pool.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || pool.isWrapperFor(iface);
+	}
+}
@@ -0,0 +1,39 @@
+package pqe.ecms.reindexer;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * How a thread of a {@link RingBuffer} waits for the other side, e.g. a consumer for an item or a producer for free space.
+ */
+public interface WaitStrategy {
+
+	/**
+	 * Waits until the condition holds.  The condition is checked again on every wake up, so spurious wake ups are harmless.
+	 *
+	 * @param condition
+	 * @throws InterruptedException
+	 */
+	void await(BooleanSupplier condition) throws InterruptedException;
+
+	/**
+	 * Wakes the threads waiting, called after every change that may make their condition hold.
+	 */
+	void signal();
+
+	/**
+	 * Creates the named strategy, <b>blocking</b> or <b>parking</b>.
+	 *
+	 * @param name
+	 * @return
+	 */
+	static WaitStrategy create(String name) {
+		switch (name) {
+			case "blocking":
+				return new BlockingWaitStrategy();
+			case "parking":
+				return new ParkingWaitStrategy();
+			default:
+				throw new IllegalArgumentException("Unknown wait strategy " + name);
+		}
+	}
+}
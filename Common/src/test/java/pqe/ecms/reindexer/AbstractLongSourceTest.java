@@ -0,0 +1,83 @@
+package pqe.ecms.reindexer;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AbstractLongSourceTest {
+
+	private static final long LINGER_MILLIS = 50;
+
+	@Test
+	public void lingeringPartialChunkIsHandedOff() throws Exception {
+		TestSource source = new TestSource(LINGER_MILLIS);
+		long[] ids = LongStream.range(0, 10).toArray();
+		CompletableFuture<long[]> read = CompletableFuture.supplyAsync(() -> source.longStream().limit(ids.length).toArray());
+
+		long startTime = System.nanoTime();
+		LongStream.of(ids).forEach(source);
+
+		// The producer pushes nothing more, only the linger timer can hand the ids over before it completes.
+		assertArrayEquals(ids, read.get(LINGER_MILLIS * 20, TimeUnit.MILLISECONDS));
+		if (System.nanoTime() - startTime < TimeUnit.MILLISECONDS.toNanos(LINGER_MILLIS)) {
+			fail("The chunk was handed off before its ids had lingered");
+		}
+		source.complete();
+		assertEquals(1, source.getLingerCount());
+		assertEquals(ids.length, source.getCount());
+	}
+
+	@Test
+	public void partialChunkIsHeldWithoutLinger() throws Exception {
+		TestSource source = new TestSource(0);
+		CompletableFuture<long[]> read = CompletableFuture.supplyAsync(() -> source.longStream().toArray());
+		LongStream.range(0, 10).forEach(source);
+
+		try {
+			read.get(LINGER_MILLIS * 4, TimeUnit.MILLISECONDS);
+			fail("A partial chunk was handed off without a linger time");
+		} catch (TimeoutException expected) {
+		}
+		source.complete();
+		assertArrayEquals(LongStream.range(0, 10).toArray(), read.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void lingerKeepsOrderAcrossFullAndPartialChunks() throws Exception {
+		TestSource source = new TestSource(1);
+		int count = AbstractLongSource.CHUNK_SIZE * 10 + 7;
+		CompletableFuture<long[]> read = CompletableFuture.supplyAsync(() -> source.longStream().toArray());
+		for (long id = 0; id < count; id++) {
+			source.accept(id);
+			if (id % 100 == 0) {
+				Thread.sleep(2);
+			}
+		}
+		source.complete();
+
+		assertArrayEquals(LongStream.range(0, count).toArray(), read.get(5, TimeUnit.SECONDS));
+		assertEquals(count, source.getCount());
+	}
+
+	private static class TestSource extends AbstractLongSource {
+		private static final Logger LOGGER = LoggerFactory.getLogger(TestSource.class);
+
+		private TestSource(long lingerMillis) {
+			super(AbstractLongSource.CHUNK_SIZE * 4, BlockingWaitStrategy::new, lingerMillis);
+		}
+
+		@Override
+		protected Logger logger() {
+			return LOGGER;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package pqe.ecms.reindexer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueueMessageCodecTest {
+
+	private static final long[] IDS = {
+			Long.MIN_VALUE, -1, 0, 1, 127, 128, 300, 1_000_000_007L, 1_000_000_008L, 999, Long.MAX_VALUE, Long.MAX_VALUE
+	};
+
+	@Test
+	public void everyFormatRoundTrips() throws Exception {
+		for (QueueMessageCodec.Format format : QueueMessageCodec.Format.values()) {
+			for (int attempts : new int[]{0, 1, 300}) {
+				QueueMessage message = QueueMessageCodec.decode(QueueMessageCodec.encode(IDS, IDS.length, format, attempts));
+				assertArrayEquals(format + " ids", IDS, message.getDocumentIds());
+				assertEquals(format + " attempts", attempts, message.getAttempts());
+			}
+		}
+	}
+
+	@Test
+	public void onlyTheGivenLengthIsEncoded() throws Exception {
+		for (QueueMessageCodec.Format format : QueueMessageCodec.Format.values()) {
+			assertArrayEquals(format.toString(), Arrays.copyOf(IDS, 3), QueueMessageCodec.decode(QueueMessageCodec.encode(IDS, 3, format)).getDocumentIds());
+			assertArrayEquals(format.toString(), new long[0], QueueMessageCodec.decode(QueueMessageCodec.encode(IDS, 0, format)).getDocumentIds());
+		}
+	}
+
+	@Test
+	public void largeSortedMessageRoundTrips() throws Exception {
+		long[] ids = new long[10_000];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = 50_000_000L + i * 3L;
+		}
+		for (QueueMessageCodec.Format format : QueueMessageCodec.Format.values()) {
+			assertArrayEquals(format.toString(), ids, QueueMessageCodec.decode(QueueMessageCodec.encode(ids, ids.length, format)).getDocumentIds());
+		}
+	}
+
+	@Test
+	public void legacyJsonBodyDecodes() throws Exception {
+		String body = new ObjectMapper().writeValueAsString(new QueueMessage(Arrays.asList(3L, 1L, 2L)));
+		QueueMessage message = QueueMessageCodec.decode(body);
+		assertArrayEquals(new long[]{3, 1, 2}, message.getDocumentIds());
+		assertEquals(0, message.getAttempts());
+
+		message = QueueMessageCodec.decode("{\"other\":{\"nested\":[1,2]},\"documentIdList\":[42]}");
+		assertArrayEquals(new long[]{42}, message.getDocumentIds());
+	}
+
+	@Test
+	public void jsonEncodingIsReadableByJackson() throws Exception {
+		QueueMessage message = new ObjectMapper().readValue(QueueMessageCodec.encode(IDS, IDS.length, QueueMessageCodec.Format.JSON, 2), QueueMessage.class);
+		assertArrayEquals(IDS, message.getDocumentIds());
+		assertEquals(2, message.getAttempts());
+	}
+
+	@Test
+	public void truncatedBodiesAreRejected() {
+		for (QueueMessageCodec.Format format : QueueMessageCodec.Format.values()) {
+			String body = QueueMessageCodec.encode(IDS, IDS.length, format, 1);
+			String truncated;
+			if (format == QueueMessageCodec.Format.JSON) {
+				truncated = body.substring(0, body.length() / 2);
+			} else {
+				byte[] bytes = Base64.getDecoder().decode(body);
+				truncated = Base64.getEncoder().encodeToString(Arrays.copyOf(bytes, bytes.length - 2));
+			}
+			assertRejected(format.toString(), truncated);
+		}
+	}
+
+	@Test
+	public void malformedBodiesAreRejected() {
+		assertRejected("empty", "");
+		assertRejected("not base64", "not a message!");
+		assertRejected("unknown version", Base64.getEncoder().encodeToString(new byte[]{9, 0, 0}));
+		assertRejected("too many ids", Base64.getEncoder().encodeToString(new byte[]{1, 0, 100, 2}));
+	}
+
+	private static void assertRejected(String description, String body) {
+		try {
+			QueueMessageCodec.decode(body);
+			fail(description + " body was decoded");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage() != null);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package pqe.ecms.reindexer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RingBufferTest {
+
+	private static final String[] WAIT_STRATEGIES = {"blocking", "parking"};
+
+	@Test
+	public void concurrentProducersAreDrainedExactlyOnceAfterClose() throws Exception {
+		for (String strategy : WAIT_STRATEGIES) {
+			int producers = 4;
+			int consumers = 3;
+			int perProducer = 20_000;
+			RingBuffer<Integer> buffer = new RingBuffer<>(8, () -> WaitStrategy.create(strategy));
+
+			List<Thread> producerThreads = new ArrayList<>();
+			for (int p = 0; p < producers; p++) {
+				int first = p * perProducer;
+				producerThreads.add(start(() -> {
+					for (int i = first; i < first + perProducer; i++) {
+						buffer.put(i);
+					}
+				}));
+			}
+
+			AtomicInteger[] received = new AtomicInteger[producers * perProducer];
+			for (int i = 0; i < received.length; i++) {
+				received[i] = new AtomicInteger();
+			}
+			List<Thread> consumerThreads = new ArrayList<>();
+			for (int c = 0; c < consumers; c++) {
+				consumerThreads.add(start(() -> {
+					Integer item;
+					while ((item = buffer.take()) != null) {
+						received[item].incrementAndGet();
+					}
+				}));
+			}
+
+			join(producerThreads);
+			buffer.close();
+			join(consumerThreads);
+
+			for (int i = 0; i < received.length; i++) {
+				assertEquals(strategy + " item " + i, 1, received[i].get());
+			}
+			assertTrue(strategy, buffer.isEmpty());
+			assertNull(strategy, buffer.take());
+		}
+	}
+
+	@Test
+	public void closedBufferRejectsPutsAndStillDrains() throws Exception {
+		RingBuffer<String> buffer = new RingBuffer<>(4, BlockingWaitStrategy::new);
+		buffer.put("a");
+		buffer.put("b");
+		buffer.close();
+
+		try {
+			buffer.put("c");
+			fail("put after close");
+		} catch (IllegalStateException expected) {
+		}
+		assertTrue(buffer.isClosed());
+		assertEquals("a", buffer.take());
+		assertEquals("b", buffer.take());
+		assertNull(buffer.take());
+	}
+
+	@Test
+	public void closeReleasesWaitingThreads() throws Exception {
+		for (String strategy : WAIT_STRATEGIES) {
+			RingBuffer<String> empty = new RingBuffer<>(2, () -> WaitStrategy.create(strategy));
+			AtomicReference<String> taken = new AtomicReference<>("none");
+			CountDownLatch consumerStarted = new CountDownLatch(1);
+			Thread consumer = start(() -> {
+				consumerStarted.countDown();
+				taken.set(empty.take());
+			});
+
+			RingBuffer<String> full = new RingBuffer<>(2, () -> WaitStrategy.create(strategy));
+			full.put("a");
+			full.put("b");
+			AtomicReference<Throwable> putFailure = new AtomicReference<>();
+			CountDownLatch producerStarted = new CountDownLatch(1);
+			Thread producer = start(() -> {
+				producerStarted.countDown();
+				try {
+					full.put("c");
+				} catch (IllegalStateException e) {
+					putFailure.set(e);
+				}
+			});
+
+			consumerStarted.await();
+			producerStarted.await();
+			Thread.sleep(50);
+			empty.close();
+			full.close();
+			consumer.join(5000);
+			producer.join(5000);
+
+			assertFalse(strategy + " consumer still waiting", consumer.isAlive());
+			assertFalse(strategy + " producer still waiting", producer.isAlive());
+			assertNull(strategy, taken.get());
+			assertTrue(strategy, putFailure.get() instanceof IllegalStateException);
+			assertEquals(strategy, 2, full.size());
+		}
+	}
+
+	@Test
+	public void offerFailsWhenFull() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(3, BlockingWaitStrategy::new);
+		assertEquals(4, buffer.capacity());
+		for (int i = 0; i < buffer.capacity(); i++) {
+			assertTrue(buffer.offer(i));
+		}
+		assertFalse(buffer.offer(4));
+		assertEquals(4, buffer.size());
+
+		List<Integer> drained = new ArrayList<>();
+		assertEquals(3, buffer.drainTo(drained, 3));
+		assertTrue(buffer.offer(4));
+		assertEquals(2, buffer.drainTo(drained, 10));
+		assertEquals(5, drained.size());
+		for (int i = 0; i < drained.size(); i++) {
+			assertEquals(Integer.valueOf(i), drained.get(i));
+		}
+		assertNull(buffer.poll());
+	}
+
+	private static Thread start(Task task) {
+		Thread thread = new Thread(() -> {
+			try {
+				task.run();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private static void join(List<Thread> threads) throws InterruptedException {
+		for (Thread thread : threads) {
+			thread.join(30_000);
+			assertFalse("thread still running", thread.isAlive());
+		}
+	}
+
+	@FunctionalInterface
+	private interface Task {
+		void run() throws InterruptedException;
+	}
+}
@@ -0,0 +1,290 @@
+package pqe.ecms.reindexer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tuning for the consumer, read from <b>consumer.json</b>.
+ */
+public class ConsumerConfig {
+
+	private Map<String, StageConfig> stages = new LinkedHashMap<>();
+	private QueueConfig queue = new QueueConfig();
+	private IndexingConfig indexing = new IndexingConfig();
+	private BodyCacheConfig bodyCache = new BodyCacheConfig();
+	private FailureConfig failures = new FailureConfig();
+
+	public Map<String, StageConfig> getStages() {
+		return stages;
+	}
+
+	public void setStages(Map<String, StageConfig> stages) {
+		this.stages = stages;
+	}
+
+	public QueueConfig getQueue() {
+		return queue;
+	}
+
+	public void setQueue(QueueConfig queue) {
+		this.queue = queue;
+	}
+
+	public IndexingConfig getIndexing() {
+		return indexing;
+	}
+
+	public void setIndexing(IndexingConfig indexing) {
+		this.indexing = indexing;
+	}
+
+	public BodyCacheConfig getBodyCache() {
+		return bodyCache;
+	}
+
+	public void setBodyCache(BodyCacheConfig bodyCache) {
+		this.bodyCache = bodyCache;
+	}
+
+	public FailureConfig getFailures() {
+		return failures;
+	}
+
+	public void setFailures(FailureConfig failures) {
+		this.failures = failures;
+	}
+
+	/**
+	 * Returns the configuration for the named workflow stage, falling back on a single thread when the stage isn't configured.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public StageConfig getStage(String name) {
+		return stages.getOrDefault(name, new StageConfig());
+	}
+
+	public static class StageConfig {
+		private int threads = 1;
+		private int queueDepth = 100;
+		private int batchSize = 100;
+
+		/**
+		 * The number of threads of the stage, 0 runs one thread per core.
+		 *
+		 * @return
+		 */
+		public int getThreads() {
+			return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		}
+
+		public void setThreads(int threads) {
+			this.threads = threads;
+		}
+
+		public int getQueueDepth() {
+			return queueDepth;
+		}
+
+		public void setQueueDepth(int queueDepth) {
+			this.queueDepth = queueDepth;
+		}
+
+		/**
+		 * The number of documents handed to a batch stage at once, ignored by stages that work on single documents.
+		 *
+		 * @return
+		 */
+		public int getBatchSize() {
+			return batchSize;
+		}
+
+		public void setBatchSize(int batchSize) {
+			this.batchSize = batchSize;
+		}
+	}
+
+	public static class QueueConfig {
+		private int maxMessages = 10;
+		private int waitTimeSeconds = 20;
+		private int visibilityTimeoutSeconds = 300;
+		private int heartbeatSeconds = 60;
+		private int maxIdleBackoffSeconds = 60;
+		private int prefetchMessages = 20;
+
+		/**
+		 * The number of messages requested per receive, at most 10.
+		 *
+		 * @return
+		 */
+		public int getMaxMessages() {
+			return maxMessages;
+		}
+
+		public void setMaxMessages(int maxMessages) {
+			this.maxMessages = maxMessages;
+		}
+
+		/**
+		 * How long a receive long-polls an empty queue, at most 20.
+		 *
+		 * @return
+		 */
+		public int getWaitTimeSeconds() {
+			return waitTimeSeconds;
+		}
+
+		public void setWaitTimeSeconds(int waitTimeSeconds) {
+			this.waitTimeSeconds = waitTimeSeconds;
+		}
+
+		/**
+		 * How long received messages stay hidden, renewed by the heartbeat while they are being processed.
+		 *
+		 * @return
+		 */
+		public int getVisibilityTimeoutSeconds() {
+			return visibilityTimeoutSeconds;
+		}
+
+		public void setVisibilityTimeoutSeconds(int visibilityTimeoutSeconds) {
+			this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+		}
+
+		/**
+		 * How often the visibility of in-flight messages is checked, should be well under half of the visibility timeout.
+		 *
+		 * @return
+		 */
+		public int getHeartbeatSeconds() {
+			return heartbeatSeconds;
+		}
+
+		public void setHeartbeatSeconds(int heartbeatSeconds) {
+			this.heartbeatSeconds = heartbeatSeconds;
+		}
+
+		/**
+		 * The longest pause between polls of an idle queue in daemon mode.
+		 *
+		 * @return
+		 */
+		public int getMaxIdleBackoffSeconds() {
+			return maxIdleBackoffSeconds;
+		}
+
+		public void setMaxIdleBackoffSeconds(int maxIdleBackoffSeconds) {
+			this.maxIdleBackoffSeconds = maxIdleBackoffSeconds;
+		}
+
+		/**
+		 * The number of messages received ahead of the consumer, never less than a single receive.
+		 *
+		 * @return
+		 */
+		public int getPrefetchMessages() {
+			return prefetchMessages;
+		}
+
+		public void setPrefetchMessages(int prefetchMessages) {
+			this.prefetchMessages = prefetchMessages;
+		}
+	}
+
+	public static class IndexingConfig {
+		private int batchSize = 500;
+
+		/**
+		 * The number of documents posted to Solr per update, collected across as many messages as it takes.
+		 *
+		 * @return
+		 */
+		public int getBatchSize() {
+			return batchSize;
+		}
+
+		public void setBatchSize(int batchSize) {
+			this.batchSize = batchSize;
+		}
+	}
+
+	public static class BodyCacheConfig {
+		private boolean enabled = false;
+		private String directory = "body-cache";
+		private long maxMegabytes = 10240;
+
+		/**
+		 * Whether S3 bodies are cached on the local disk, worth it when the same versions are indexed again, as in repeated full reindexes.
+		 *
+		 * @return
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public String getDirectory() {
+			return directory;
+		}
+
+		public void setDirectory(String directory) {
+			this.directory = directory;
+		}
+
+		/**
+		 * The most disk taken by the gzipped bodies, the least recently used are deleted beyond it.
+		 *
+		 * @return
+		 */
+		public long getMaxMegabytes() {
+			return maxMegabytes;
+		}
+
+		public void setMaxMegabytes(long maxMegabytes) {
+			this.maxMegabytes = maxMegabytes;
+		}
+	}
+
+	public static class FailureConfig {
+		private boolean enabled = false;
+		private int maxAttempts = 3;
+		private int maxReasonLength = 500;
+
+		/**
+		 * Whether documents failing a stage are sent to the failure queue of the instance, <b>ecms-&lt;instance&gt;-indexing-failures</b>.
+		 *
+		 * @return
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		/**
+		 * The number of times a document may fail, counting replays, before it is given up on.
+		 *
+		 * @return
+		 */
+		public int getMaxAttempts() {
+			return maxAttempts;
+		}
+
+		public void setMaxAttempts(int maxAttempts) {
+			this.maxAttempts = maxAttempts;
+		}
+
+		public int getMaxReasonLength() {
+			return maxReasonLength;
+		}
+
+		public void setMaxReasonLength(int maxReasonLength) {
+			this.maxReasonLength = maxReasonLength;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package pqe.ecms.reindexer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The {@link StageMetrics} of every stage of the consumer, by name. <br/>
+ * The throughput is taken from the documents passing the named throughput stage, as a rolling rate between status lines and overall.
+ */
+public class ConsumerMetrics {
+
+	private final Map<String, StageMetrics> stages = new ConcurrentSkipListMap<>();
+	private final String throughputStage;
+	private final long startNanos = System.nanoTime();
+
+	private long lastNanos = startNanos;
+	private long lastCount;
+
+	/**
+	 * @param throughputStage The stage whose succeeded documents are counted towards the throughput.
+	 */
+	public ConsumerMetrics(String throughputStage) {
+		this.throughputStage = throughputStage;
+	}
+
+	/**
+	 * Get the metrics of the named stage, creating them on first use.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public StageMetrics getStage(String name) {
+		return stages.computeIfAbsent(name, key -> new StageMetrics());
+	}
+
+	/**
+	 * Summarizes every stage with the documents per second since the previous call.
+	 *
+	 * @return
+	 */
+	public synchronized String getStatus() {
+		long now = System.nanoTime();
+		long count = getStage(throughputStage).getSucceeded();
+		double rate = perSecond(count - lastCount, now - lastNanos);
+		lastNanos = now;
+		lastCount = count;
+
+		return String.format("docsPerSec=%.1f, %s", rate, describeStages());
+	}
+
+	/**
+	 * Summarizes every stage with the documents per second over the whole run.
+	 *
+	 * @return
+	 */
+	public String getSummary() {
+		return String.format("docsPerSec=%.1f, %s", perSecond(getStage(throughputStage).getSucceeded(), System.nanoTime() - startNanos), describeStages());
+	}
+
+	private String describeStages() {
+		return stages.entrySet().stream()
+				.map(entry -> String.format("%s[%s]", entry.getKey(), entry.getValue()))
+				.collect(Collectors.joining(", "));
+	}
+
+	private static double perSecond(long count, long nanos) {
+		return nanos <= 0 ? 0.0 : count * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+	}
+}
@@ -0,0 +1,259 @@
+package pqe.ecms.reindexer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pqe.ecms.aws.AWSFactory;
+import pqe.ecms.reindexer.workflow.IndexingDocument;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Sends the documents that fail a stage of the pipeline to the failure queue, with the stage and the reason, so they can be replayed on their own
+ * by the supplier in replay mode. <br/>
+ * Failures are collected as they are reported and sent by {@link #flush()}, in messages of up to {@link #FAILURES_PER_MESSAGE} failures and
+ * {@link #MAX_MESSAGE_BYTES} bytes, in batches within the 256 KB request limit of SQS.
+ * A document that has failed {@link ConsumerConfig.FailureConfig#getMaxAttempts()} times is given up on and only logged.
+ */
+public class FailureReporter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FailureReporter.class);
+
+	private static final int MAX_BATCH_ENTRIES = 10;
+	private static final int FAILURES_PER_MESSAGE = 100;
+	private static final int MAX_SEND_ATTEMPTS = 3;
+	private static final long RETRY_DELAY_MILLIS = 200L;
+	private static final int MAX_BATCH_BYTES = 256 * 1024;
+	private static final int MAX_MESSAGE_BYTES = 64 * 1024;
+	private static final int MESSAGE_OVERHEAD_BYTES = 16;
+
+	private final String queueUrl;
+	private final AmazonSQS sqsClient;
+	private final int maxAttempts;
+	private final int maxReasonLength;
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final List<FailureMessage.Failure> pending = new ArrayList<>();
+
+	private final LongAdder reportedCount = new LongAdder();
+	private final LongAdder sentCount = new LongAdder();
+	private final LongAdder givenUpCount = new LongAdder();
+	private final LongAdder lostCount = new LongAdder();
+
+	public FailureReporter(String queueUrl, ConsumerConfig.FailureConfig config) {
+		this.queueUrl = queueUrl;
+		this.sqsClient = AWSFactory.getSQSClient();
+		this.maxAttempts = config.getMaxAttempts();
+		this.maxReasonLength = config.getMaxReasonLength();
+		LOGGER.info("Reporting failed documents to SQS queue {} for up to {} attempts", queueUrl, maxAttempts);
+	}
+
+	/**
+	 * Records a document that failed a stage.  Safe to call from any stage thread.
+	 *
+	 * @param document
+	 * @param stage    The name of the stage.
+	 * @param cause    The exception thrown by the stage, or null when the stage left the document out of its result.
+	 */
+	public void report(IndexingDocument document, String stage, Throwable cause) {
+		int attempts = document.getAttempts() + 1;
+		String reason = describe(cause);
+		if (attempts >= maxAttempts) {
+			givenUpCount.increment();
+			LOGGER.error("Giving up on document {} after {} attempts, failed {}: {}", document.getDocumentId(), attempts, stage, reason);
+			return;
+		}
+
+		reportedCount.increment();
+		synchronized (pending) {
+			pending.add(new FailureMessage.Failure(document.getDocumentId(), stage, reason, attempts));
+		}
+	}
+
+	/**
+	 * Sends the failures reported so far.  Called before the messages of the documents are deleted, so the messages of failures that could not be
+	 * queued can be released instead, and a failure is never lost with its message.
+	 *
+	 * @return The ids of the failed documents that could not be queued.
+	 */
+	public Set<Long> flush() {
+		List<FailureMessage.Failure> failures;
+		synchronized (pending) {
+			if (pending.isEmpty()) {
+				return Collections.emptySet();
+			}
+			failures = new ArrayList<>(pending);
+			pending.clear();
+		}
+
+		Set<Long> unqueued = new HashSet<>();
+		List<Entry> batch = new ArrayList<>(MAX_BATCH_ENTRIES);
+		int batchBytes = 0;
+		for (Entry entry : toEntries(failures, unqueued)) {
+			if (!batch.isEmpty() && (batch.size() == MAX_BATCH_ENTRIES || batchBytes + entry.bytes > MAX_BATCH_BYTES)) {
+				send(batch, unqueued);
+				batch = new ArrayList<>(MAX_BATCH_ENTRIES);
+				batchBytes = 0;
+			}
+			batch.add(entry);
+			batchBytes += entry.bytes;
+		}
+		if (!batch.isEmpty()) {
+			send(batch, unqueued);
+		}
+		return unqueued;
+	}
+
+	/**
+	 * Summarizes the failures for status logging.
+	 *
+	 * @return
+	 */
+	public String getStatistics() {
+		return String.format("failuresReported=%d, failuresSent=%d, failuresGivenUp=%d, failuresLost=%d",
+				reportedCount.longValue(), sentCount.longValue(), givenUpCount.longValue(), lostCount.longValue());
+	}
+
+	/**
+	 * Packs the failures into message bodies of at most {@link #FAILURES_PER_MESSAGE} failures and {@link #MAX_MESSAGE_BYTES} bytes.
+	 *
+	 * @param failures
+	 * @param unqueued Collects the failures that can't be encoded.
+	 * @return
+	 */
+	private List<Entry> toEntries(List<FailureMessage.Failure> failures, Set<Long> unqueued) {
+		List<Entry> entries = new ArrayList<>();
+		List<FailureMessage.Failure> chunk = new ArrayList<>();
+		int chunkBytes = MESSAGE_OVERHEAD_BYTES;
+		for (FailureMessage.Failure failure : failures) {
+			int bytes;
+			try {
+				bytes = mapper.writeValueAsBytes(failure).length + 1;
+			} catch (JsonProcessingException e) {
+				lost(Collections.singletonList(failure), e.getMessage(), unqueued);
+				continue;
+			}
+			if (!chunk.isEmpty() && (chunk.size() == FAILURES_PER_MESSAGE || chunkBytes + bytes > MAX_MESSAGE_BYTES)) {
+				addEntry(entries, chunk, unqueued);
+				chunk = new ArrayList<>();
+				chunkBytes = MESSAGE_OVERHEAD_BYTES;
+			}
+			chunk.add(failure);
+			chunkBytes += bytes;
+		}
+		if (!chunk.isEmpty()) {
+			addEntry(entries, chunk, unqueued);
+		}
+		return entries;
+	}
+
+	private void addEntry(List<Entry> entries, List<FailureMessage.Failure> failures, Set<Long> unqueued) {
+		try {
+			String body = mapper.writeValueAsString(new FailureMessage(failures));
+			entries.add(new Entry(body, body.getBytes(StandardCharsets.UTF_8).length, failures));
+		} catch (JsonProcessingException e) {
+			lost(failures, e.getMessage(), unqueued);
+		}
+	}
+
+	/**
+	 * Sends a batch, sending the entries that failed again after a growing delay, up to {@link #MAX_SEND_ATTEMPTS} times.
+	 *
+	 * @param batch
+	 * @param unqueued Collects the failures of the entries that were never accepted.
+	 */
+	private void send(List<Entry> batch, Set<Long> unqueued) {
+		List<Entry> remaining = batch;
+		String reason = null;
+		for (int attempt = 1; attempt <= MAX_SEND_ATTEMPTS && !remaining.isEmpty(); attempt++) {
+			if (attempt > 1) {
+				try {
+					Thread.sleep(RETRY_DELAY_MILLIS << (attempt - 2));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					reason = "Interrupted";
+					break;
+				}
+			}
+
+			List<SendMessageBatchRequestEntry> entries = new ArrayList<>(remaining.size());
+			for (int i = 0; i < remaining.size(); i++) {
+				entries.add(new SendMessageBatchRequestEntry(String.valueOf(i), remaining.get(i).body));
+			}
+			try {
+				SendMessageBatchResult result = sqsClient.sendMessageBatch(new SendMessageBatchRequest(queueUrl, entries));
+				for (SendMessageBatchResultEntry entry : result.getSuccessful()) {
+					sentCount.add(remaining.get(Integer.parseInt(entry.getId())).failures.size());
+				}
+
+				List<Entry> failed = new ArrayList<>();
+				for (BatchResultErrorEntry error : result.getFailed()) {
+					failed.add(remaining.get(Integer.parseInt(error.getId())));
+					reason = error.getCode() + " " + error.getMessage();
+				}
+				remaining = failed;
+
+			} catch (AmazonClientException e) {
+				reason = e.getMessage();
+				LOGGER.warn("Exception sending {} failure messages to SQS queue {} (attempt {} of {})", remaining.size(), queueUrl, attempt, MAX_SEND_ATTEMPTS, e);
+			}
+		}
+
+		for (Entry entry : remaining) {
+			lost(entry.failures, reason, unqueued);
+		}
+	}
+
+	private void lost(List<FailureMessage.Failure> failures, String reason, Set<Long> unqueued) {
+		lostCount.add(failures.size());
+		failures.forEach(failure -> unqueued.add(failure.getDocumentId()));
+		LOGGER.error("Failed to queue {} failed documents, releasing their messages: {}, documentIds={}", failures.size(), reason,
+				failures.stream().map(failure -> String.valueOf(failure.getDocumentId())).collect(Collectors.joining(",")));
+	}
+
+	/**
+	 * @param cause
+	 * @return The root cause of the exception, which the stages wrap, cut to the configured length.
+	 */
+	private String describe(Throwable cause) {
+		if (cause == null) {
+			return "Left out by the stage";
+		}
+		Throwable root = cause;
+		while (root.getCause() != null && root.getCause() != root) {
+			root = root.getCause();
+		}
+		String reason = root.toString();
+		return reason.length() > maxReasonLength ? reason.substring(0, maxReasonLength) : reason;
+	}
+
+	/**
+	 * A message body with the failures it holds.
+	 */
+	private static class Entry {
+		private final String body;
+		private final int bytes;
+		private final List<FailureMessage.Failure> failures;
+
+		private Entry(String body, int bytes, List<FailureMessage.Failure> failures) {
+			this.body = body;
+			this.bytes = bytes;
+			this.failures = failures;
+		}
+	}
+}
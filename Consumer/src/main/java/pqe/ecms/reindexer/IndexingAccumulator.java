@@ -0,0 +1,226 @@
+package pqe.ecms.reindexer;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.CloudSolrClient;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pqe.ecms.reindexer.workflow.IndexingDocument;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Collects converted documents from any number of SQS messages into Solr update requests of {@link ConsumerConfig.IndexingConfig#getBatchSize()} documents. <br/>
+ * Each message is tracked until every one of its documents has been accepted by Solr, only then is it deleted from the queue.
+ * When an update fails on the way to Solr or on a Solr server error the messages it covers are released back onto the queue instead, so their documents
+ * are indexed again on redelivery.  When Solr rejects the update the documents are posted again in halves until the documents it rejects are found,
+ * those are sent to the failure queue under the <b>addToSolr</b> stage, and only their messages are released when that fails.
+ */
+public class IndexingAccumulator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(IndexingAccumulator.class);
+
+	private final CloudSolrClient solrClient;
+	private final String collection;
+	private final int batchSize;
+	private final SqsSource source;
+	private final StageMetrics solrMetrics;
+	private final FailureReporter failureReporter;
+
+	private final List<IndexingDocument> documents = new ArrayList<>();
+	private final List<PendingMessage> owners = new ArrayList<>();
+
+	/**
+	 * @param solrClient
+	 * @param collection
+	 * @param config
+	 * @param source      Acknowledges and releases the messages once their documents are settled.
+	 * @param solrMetrics     Records the documents accepted and rejected by Solr and the time taken by each update.
+	 * @param failureReporter Receives the documents Solr rejects, null to only log them.
+	 */
+	public IndexingAccumulator(CloudSolrClient solrClient, String collection, ConsumerConfig.IndexingConfig config, SqsSource source, StageMetrics solrMetrics,
+							   FailureReporter failureReporter) {
+		this.solrClient = solrClient;
+		this.collection = collection;
+		this.batchSize = config.getBatchSize();
+		this.source = source;
+		this.solrMetrics = solrMetrics;
+		this.failureReporter = failureReporter;
+		LOGGER.info("Posting to Solr collection {} in batches of {}", collection, batchSize);
+	}
+
+	/**
+	 * Adds the documents converted from a message, posting to Solr each time a full batch has been collected.
+	 * A message without any documents to index is deleted straight away.
+	 *
+	 * @param message
+	 * @param indexingDocuments The documents of the message that were converted for Solr.
+	 */
+	public void add(ReceivedMessage message, List<IndexingDocument> indexingDocuments) {
+		add(message, indexingDocuments, false);
+	}
+
+	/**
+	 * Adds the documents converted from a message that may have to be received again.
+	 *
+	 * @param message
+	 * @param indexingDocuments The documents of the message that were converted for Solr.
+	 * @param release           Releases the message once its documents are settled instead of deleting it, for a message with documents that failed
+	 *                      and could not be sent to the failure queue.
+	 */
+	public void add(ReceivedMessage message, List<IndexingDocument> indexingDocuments, boolean release) {
+		PendingMessage pending = new PendingMessage(message, indexingDocuments.size());
+		pending.failed = release;
+		if (indexingDocuments.isEmpty()) {
+			if (release) {
+				source.release(Collections.singletonList(message));
+			} else {
+				source.acknowledge(Collections.singletonList(message));
+			}
+			return;
+		}
+
+		for (IndexingDocument indexingDocument : indexingDocuments) {
+			documents.add(indexingDocument);
+			owners.add(pending);
+			if (documents.size() >= batchSize) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of documents waiting for the next update.
+	 */
+	public int getPendingCount() {
+		return documents.size();
+	}
+
+	/**
+	 * Posts the documents collected so far, then deletes the messages whose documents have all been accepted or sent to the failure queue
+	 * and releases the messages that had a document in a failed update.
+	 */
+	public void flush() {
+		if (documents.isEmpty()) {
+			return;
+		}
+
+		LOGGER.info("Posting {} documents to Solr", documents.size());
+		Set<IndexingDocument> rejected = Collections.newSetFromMap(new IdentityHashMap<>());
+		post(0, documents.size(), rejected);
+		if (!rejected.isEmpty()) {
+			reportRejected(rejected);
+		}
+
+		Set<PendingMessage> settled = new LinkedHashSet<>();
+		for (PendingMessage owner : owners) {
+			if (--owner.remaining == 0) {
+				settled.add(owner);
+			}
+		}
+		documents.clear();
+		owners.clear();
+
+		List<ReceivedMessage> acknowledged = new ArrayList<>();
+		List<ReceivedMessage> released = new ArrayList<>();
+		for (PendingMessage owner : settled) {
+			(owner.failed ? released : acknowledged).add(owner.message);
+		}
+		source.acknowledge(acknowledged);
+		source.release(released);
+	}
+
+	/**
+	 * Posts a range of the collected documents.  When Solr rejects the update the range is posted again in halves, so the documents Solr
+	 * rejects end up on their own and the others are indexed.  On any other failure the messages of the range are marked for release.
+	 *
+	 * @param from
+	 * @param to
+	 * @param rejected Collects the documents Solr rejected on their own.
+	 */
+	private void post(int from, int to, Set<IndexingDocument> rejected) {
+		List<SolrInputDocument> solrDocuments = documents.subList(from, to).stream()
+				.map(IndexingDocument::getSolrDocument)
+				.collect(Collectors.toList());
+		long startTime = System.nanoTime();
+		try {
+			solrClient.add(collection, solrDocuments);
+			solrMetrics.record(startTime, solrDocuments.size(), 0);
+			return;
+		} catch (SolrServerException | IOException | RuntimeException e) {
+			if (!isRejected(e)) {
+				solrMetrics.record(startTime, 0, solrDocuments.size());
+				LOGGER.error("Exception posting {} documents to Solr, releasing their messages", solrDocuments.size(), e);
+				owners.subList(from, to).forEach(owner -> owner.failed = true);
+				return;
+			}
+			if (to - from == 1) {
+				solrMetrics.record(startTime, 0, 1);
+				LOGGER.error("Solr rejected document {}", documents.get(from).getDocumentId(), e);
+				rejected.add(documents.get(from));
+				if (failureReporter != null) {
+					failureReporter.report(documents.get(from), "addToSolr", e);
+				}
+				return;
+			}
+			solrMetrics.record(startTime, 0, 0);
+			LOGGER.warn("Solr rejected {} documents, posting them again in halves: {}", solrDocuments.size(), e.getMessage());
+		}
+
+		int middle = (from + to) >>> 1;
+		post(from, middle, rejected);
+		post(middle, to, rejected);
+	}
+
+	/**
+	 * Sends the rejected documents to the failure queue, marking the messages of the documents that could not be queued for release.
+	 *
+	 * @param rejected
+	 */
+	private void reportRejected(Set<IndexingDocument> rejected) {
+		if (failureReporter == null) {
+			return;
+		}
+		Set<Long> unqueued = failureReporter.flush();
+		if (unqueued.isEmpty()) {
+			return;
+		}
+		for (int i = 0; i < documents.size(); i++) {
+			if (rejected.contains(documents.get(i)) && unqueued.contains(documents.get(i).getDocumentId())) {
+				owners.get(i).failed = true;
+			}
+		}
+	}
+
+	/**
+	 * @param e
+	 * @return Whether Solr answered the update with a client error, which posting the same documents again won't change.
+	 * Transport failures and server errors are worth retrying.
+	 */
+	private static boolean isRejected(Exception e) {
+		if (!(e instanceof SolrException)) {
+			return false;
+		}
+		int code = ((SolrException) e).code();
+		return code >= 400 && code < 500;
+	}
+
+	private static class PendingMessage {
+		private final ReceivedMessage message;
+		private int remaining;
+		private boolean failed;
+
+		private PendingMessage(ReceivedMessage message, int remaining) {
+			this.message = message;
+			this.remaining = remaining;
+		}
+	}
+}
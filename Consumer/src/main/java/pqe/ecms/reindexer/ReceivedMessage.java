@@ -0,0 +1,65 @@
+package pqe.ecms.reindexer;
+
+import java.util.List;
+
+/**
+ * An SQS message that has been received and decoded but not yet deleted.
+ */
+public class ReceivedMessage {
+
+	private final String messageId;
+	private final String receiptHandle;
+	private final List<Long> documentIds;
+	private final int attempts;
+	private volatile long visibleAt;
+
+	public ReceivedMessage(String messageId, String receiptHandle, List<Long> documentIds, long visibleAt) {
+		this(messageId, receiptHandle, documentIds, 0, visibleAt);
+	}
+
+	public ReceivedMessage(String messageId, String receiptHandle, List<Long> documentIds, int attempts, long visibleAt) {
+		this.messageId = messageId;
+		this.receiptHandle = receiptHandle;
+		this.documentIds = documentIds;
+		this.attempts = attempts;
+		this.visibleAt = visibleAt;
+	}
+
+	public String getMessageId() {
+		return messageId;
+	}
+
+	public String getReceiptHandle() {
+		return receiptHandle;
+	}
+
+	public List<Long> getDocumentIds() {
+		return documentIds;
+	}
+
+	/**
+	 * @return The number of times the documents have failed to index before, see {@link QueueMessage#getAttempts()}.
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * @return The time in milliseconds at which the message becomes visible to other consumers again unless its visibility is extended.
+	 */
+	public long getVisibleAt() {
+		return visibleAt;
+	}
+
+	public void setVisibleAt(long visibleAt) {
+		this.visibleAt = visibleAt;
+	}
+
+	@Override
+	public String toString() {
+		return "ReceivedMessage{" +
+				"messageId='" + messageId + '\'' +
+				", documentIds=" + documentIds.size() +
+				'}';
+	}
+}
@@ -3,25 +3,28 @@ package pqe.ecms.reindexer;
 import com.proquest.configuration.Configuration;
 import com.proquest.configuration.ConfigurationLoader;
 import com.proquest.editorial.commons.properties.PropertyResources;
-import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.CloudSolrClient;
-import org.apache.solr.common.SolrInputDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pqe.ecms.ConfigProvider;
+import pqe.ecms.ConfigResolver;
+import pqe.ecms.aws.AWSFactory;
+import pqe.ecms.aws.AmazonS3Helper;
 import pqe.ecms.metrics.Gatherer;
-import pqe.ecms.reindexer.exceptions.WorkflowException;
 import pqe.ecms.reindexer.workflow.DocumentMapper;
 import pqe.ecms.reindexer.workflow.IndexingDocument;
+import pqe.ecms.reindexer.workflow.S3BodyFetcher;
+import pqe.ecms.reindexer.workflow.DiskBodyCache;
 import pqe.ecms.reindexer.workflow.S3Reader;
+import pqe.ecms.reindexer.workflow.SolrDocumentConverter;
 import pqe.ecms.reindexer.workflow.SqlReader;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 public class ReindexingConsumer {
@@ -29,6 +32,7 @@ public class ReindexingConsumer {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ReindexingConsumer.class);
 
 	private static final String CONFIG = "command_line";
+	private static final String CONSUMER_CONFIG = "/consumer.json";
 
 	public static void main(String[] args) {
 		try {
@@ -45,12 +49,10 @@ public class ReindexingConsumer {
 		}
 	}
 
-	private SqlReader sqlReader;
-	private S3Reader s3Reader;
-	private DocumentMapper documentMapper;
+	private StagedPipeline pipeline;
 	private CloudSolrClient solrClient;
 
-	private Map<String, LongAdder> workflowCounts = new LinkedHashMap<>();
+	private ConsumerMetrics metrics = new ConsumerMetrics("addToSolr");
 
 	public void execute(String[] args) throws Exception {
 		LOGGER.info("Starting ReindexingConsumer");
@@ -60,58 +62,100 @@ public class ReindexingConsumer {
 		System.setProperty("ecms.environment", commandLine.getString("instance"));
 
 		ConfigProvider jarProvider = ConfigProviderFactory.getProvider("jar");
+		ConsumerConfig consumerConfig = loadConsumerConfig(commandLine, jarProvider);
 
 		initProperties("ecmsResource", "/global/ecmsResource.properties");
 		initProperties("ecmsservices", "/" + System.getProperty("ecms.environment") + "/services.properties");
 		initProperties("jpa", "/" + System.getProperty("ecms.environment") + "/jpaBase.properties");
 		initProperties("solr", "/" + System.getProperty("ecms.environment") + "/solr.properties");
 
-		SqsSource source = new SqsSource("https://sqs.us-east-1.amazonaws.com/365859773477/ecms-" + System.getProperty("ecms.environment") + "-indexing");
+		String queueUrl = "https://sqs.us-east-1.amazonaws.com/365859773477/ecms-" + System.getProperty("ecms.environment") + "-indexing";
+		SqsSource source = new SqsSource(queueUrl, consumerConfig.getQueue(), commandLine.keyExists("daemon"), metrics.getStage("receiveMessages"));
+		FailureReporter failureReporter = consumerConfig.getFailures().isEnabled() ? new FailureReporter(queueUrl + "-failures", consumerConfig.getFailures()) : null;
 
 		SqlConfig sqlConfig = new SqlConfig(PropertyResources.getNamedProperties("jpa"));
-		sqlReader = new SqlReader(sqlConfig);
-		s3Reader = new S3Reader(System.getProperty("ecms.environment"));
-		documentMapper = new DocumentMapper();
+		int s3InFlight = consumerConfig.getStage("fetchDocumentBody").getThreads();
+		AWSFactory.setS3MaxConnections(s3InFlight);
+		DiskBodyCache bodyCache = consumerConfig.getBodyCache().isEnabled()
+				? new DiskBodyCache(Paths.get(consumerConfig.getBodyCache().getDirectory()), consumerConfig.getBodyCache().getMaxMegabytes() << 20)
+				: null;
+
+		pipeline = new StagedPipeline(metrics)
+				.setFailureReporter(failureReporter)
+				.setBatchStage("fetchMetadata", "reading document from SQL", consumerConfig.getStage("fetchMetadata"), new SqlReader(sqlConfig))
+				.addAsyncStage("fetchDocumentBody", "reading document from S3", new S3BodyFetcher(new S3Reader(System.getProperty("ecms.environment"), bodyCache), s3InFlight))
+				.addStage("mapDocumentForSolr", "mapping document for Solr", consumerConfig.getStage("mapDocumentForSolr"), new DocumentMapper())
+				.addStage("toSolrInputDocument", "converting document for Solr", consumerConfig.getStage("toSolrInputDocument"), new SolrDocumentConverter());
 		solrClient = SolrFactory.getCloudSolrClient();
+		IndexingAccumulator accumulator = new IndexingAccumulator(solrClient, "ecms", consumerConfig.getIndexing(), source, metrics.getStage("addToSolr"), failureReporter);
 
 		ScheduledExecutorService execService = Executors.newScheduledThreadPool(1);
 		execService.scheduleAtFixedRate(() -> {
-			LOGGER.info("Status: {}",
-					workflowCounts.entrySet().stream()
-							.map(entry -> String.format("%s=%d", entry.getKey(), entry.getValue().intValue()))
-							.collect(Collectors.joining(", "))
+			LOGGER.info("Status: {}, solrPending={}, {}, {}{}{}",
+					metrics.getStatus(),
+					accumulator.getPendingCount(),
+					SqlDataSource.getInstance(sqlConfig).getStatistics(),
+					AmazonS3Helper.getStatistics(),
+					bodyCache != null ? ", " + bodyCache.getStatistics() : "",
+					failureReporter != null ? ", " + failureReporter.getStatistics() : ""
 			);
 		}, 5, 15, TimeUnit.SECONDS);
 
 		while (source.next()) {
-			List<Long> documentIds = source.stream().collect(Collectors.toList());
-			LOGGER.info("Consumed {} documentIds", documentIds.size());
-
-			List<SolrInputDocument> solrBatch = documentIds.stream()
-					.map(this::getNewDocument)
-					.map(this::fetchMetadata)
-					.filter(Optional::isPresent)
-					.map(Optional::get)
-					.map(this::fetchDocumentBody)
-					.filter(Optional::isPresent)
-					.map(Optional::get)
-					.map(this::mapDocumentForSolr)
-					.filter(Optional::isPresent)
-					.map(Optional::get)
-					.map(this::toSolrInputDocument)
-					.filter(Optional::isPresent)
-					.map(Optional::get)
-					.collect(Collectors.toList());
+			Map<ReceivedMessage, List<IndexingDocument>> documentsByMessage = new LinkedHashMap<>();
+			source.getCurrentMessages().forEach(message -> documentsByMessage.put(message, message.getDocumentIds().stream()
+					.map(documentId -> getNewDocument(documentId, message.getAttempts()))
+					.collect(Collectors.toList())));
 
-			try {
-				LOGGER.info("Posting {} documents to Solr", solrBatch.size());
-				solrClient.add("ecms", solrBatch);
-			} catch (SolrServerException | IOException e) {
-				LOGGER.error("Exception", e);
+			List<IndexingDocument> documents = documentsByMessage.values().stream()
+					.flatMap(List::stream)
+					.collect(Collectors.toList());
+			LOGGER.info("Consumed {} documentIds from {} messages", documents.size(), documentsByMessage.size());
+
+			Set<IndexingDocument> processed = Collections.newSetFromMap(new IdentityHashMap<>());
+			processed.addAll(pipeline.process(documents).join());
+			Set<Long> unqueued = failureReporter != null ? failureReporter.flush() : Collections.emptySet();
+
+			// A message with a failure that didn't make it to the failure queue is released, so the failed document isn't lost with it.
+			documentsByMessage.forEach((message, messageDocuments) -> accumulator.add(message, messageDocuments.stream()
+					.filter(processed::contains)
+					.collect(Collectors.toList()),
+					!unqueued.isEmpty() && messageDocuments.stream()
+							.anyMatch(document -> !processed.contains(document) && unqueued.contains(document.getDocumentId()))));
+
+			// Don't hold a partial batch, and the messages it covers, while waiting on an empty queue.
+			if (!source.hasPrefetched()) {
+				accumulator.flush();
 			}
 		}
+		accumulator.flush();
 
 		execService.shutdown();
+		source.shutdown();
+		pipeline.shutdown();
+		SqlDataSource.getInstance(sqlConfig).close();
+		LOGGER.info("Totals: {}", metrics.getSummary());
+		if (bodyCache != null) {
+			LOGGER.info("Body cache: {}", bodyCache.getStatistics());
+		}
+		if (failureReporter != null) {
+			LOGGER.info("Failures: {}", failureReporter.getStatistics());
+		}
+	}
+
+	/**
+	 * Reads the consumer tuning from the <b>config</b> command line parameter when given, otherwise from the copy in the jar.
+	 *
+	 * @param commandLine
+	 * @param jarProvider
+	 * @return
+	 * @throws Exception
+	 */
+	private ConsumerConfig loadConsumerConfig(Configuration commandLine, ConfigProvider jarProvider) throws Exception {
+		if (commandLine.keyExists("config")) {
+			return ConfigResolver.loadConfig(ConsumerConfig.class, commandLine.getString("config"), ConfigProviderFactory.getProvider(commandLine));
+		}
+		return ConfigResolver.loadConfig(ConsumerConfig.class, CONSUMER_CONFIG, jarProvider);
 	}
 
 	private void initProperties(String name, String path) throws IOException {
@@ -119,56 +163,12 @@ public class ReindexingConsumer {
 		PropertyResources.loadNamedProperties(name, props);
 	}
 
-	private void count(String workflow) {
-		workflowCounts.computeIfAbsent(workflow, x -> new LongAdder()).increment();
-	}
-
-	private IndexingDocument getNewDocument(Long documentId) {
-		count("getNewDocument");
+	private IndexingDocument getNewDocument(Long documentId, int attempts) {
+		metrics.getStage("getNewDocument").count(1);
 		IndexingDocument doc = new IndexingDocument();
 		doc.setDocumentId(documentId);
+		doc.setAttempts(attempts);
 		return doc;
 	}
 
-	private Optional<IndexingDocument> fetchMetadata(IndexingDocument document) {
-		count("fetchMetadata");
-		try {
-			return Optional.of(sqlReader.apply(document));
-		} catch (WorkflowException e) {
-			LOGGER.warn("Exception reading document from SQL: {}", document.getDocumentId(), e);
-			return Optional.empty();
-		}
-	}
-
-	private Optional<IndexingDocument> fetchDocumentBody(IndexingDocument document) {
-		count("fetchDocumentBody");
-		try {
-			return Optional.of(s3Reader.apply(document));
-		} catch (WorkflowException e) {
-			LOGGER.warn("Exception reading document from S3: {}", document.getDocumentId(), e);
-			return Optional.empty();
-		}
-	}
-
-	private Optional<IndexingDocument> mapDocumentForSolr(IndexingDocument document) {
-		count("mapDocumentForSolr");
-		try {
-			return Optional.of(documentMapper.apply(document));
-		} catch (WorkflowException e) {
-			LOGGER.warn("Exception mapping document for Solr: {}", document.getDocumentId(), e);
-			return Optional.empty();
-		}
-	}
-
-	private Optional<SolrInputDocument> toSolrInputDocument(IndexingDocument document) {
-		count("toSolrInputDocument");
-		SolrInputDocument solrDoc = new SolrInputDocument();
-		for (String field : document.getMappedDocument().fieldSet()) {
-			for (String value : document.getMappedDocument().getFieldValues(field)) {
-				solrDoc.addField(field, value);
-			}
-		}
-		return Optional.of(solrDoc);
-	}
-
 }
@@ -2,80 +2,321 @@ package pqe.ecms.reindexer;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pqe.ecms.aws.AWSFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
-public class SqsSource extends AbstractSource<Long> {
+/**
+ * Receives the messages on the indexing queue, a receive's worth at a time. <br/>
+ * Messages are long-polled up to {@link ConsumerConfig.QueueConfig#getMaxMessages()} at a time and have their visibility extended by a heartbeat
+ * for as long as they are in flight.  They stay in flight until they are either {@link #acknowledge(Collection) acknowledged} or {@link #release(Collection) released}.
+ * A receiver thread polls and decodes ahead of the consumer into a buffer of {@link ConsumerConfig.QueueConfig#getPrefetchMessages()} messages,
+ * so the long poll is kept off the critical path.
+ * In daemon mode an empty queue is polled again after an idle backoff instead of ending the stream.
+ */
+public class SqsSource {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(SqsSource.class);
 
-	private ObjectMapper objectMapper = new ObjectMapper();
+	private static final int MAX_BATCH_ENTRIES = 10;
+	private static final long MIN_IDLE_BACKOFF_MILLIS = 1000L;
+	private static final ReceivedMessage END_OF_QUEUE = new ReceivedMessage(null, null, Collections.emptyList(), 0L);
 
 	private String queueUrl;
 	private AmazonSQS sqsClient;
+	private ConsumerConfig.QueueConfig config;
+	private boolean daemon;
+	private StageMetrics receiveMetrics;
 
-	private String lastReceiptHandle;
+	private Map<String, ReceivedMessage> inFlight = new ConcurrentHashMap<>();
+	private List<ReceivedMessage> currentMessages = Collections.emptyList();
+	private BlockingQueue<ReceivedMessage> prefetched;
+	private ScheduledExecutorService heartbeat;
+	private Thread receiver;
 
-	public SqsSource(String queueUrl) {
+	/**
+	 * @param queueUrl
+	 * @param config
+	 * @param daemon         Keep polling an empty queue rather than ending the stream.
+	 * @param receiveMetrics Records the messages received and the time taken by every receive that returned messages.
+	 */
+	public SqsSource(String queueUrl, ConsumerConfig.QueueConfig config, boolean daemon, StageMetrics receiveMetrics) {
 		this.queueUrl = queueUrl;
 		this.sqsClient = AWSFactory.getSQSClient();
-	}
+		this.config = config;
+		this.daemon = daemon;
+		this.receiveMetrics = receiveMetrics;
+
+		this.heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("sqs-heartbeat-%d").setDaemon(true).build());
+		this.heartbeat.scheduleWithFixedDelay(this::extendVisibility, config.getHeartbeatSeconds(), config.getHeartbeatSeconds(), TimeUnit.SECONDS);
 
-	@Override
-	protected Logger logger() {
-		return LOGGER;
+		this.prefetched = new LinkedBlockingQueue<>(Math.max(config.getPrefetchMessages(), config.getMaxMessages()));
+		this.receiver = new ThreadFactoryBuilder().setNameFormat("sqs-receiver-%d").setDaemon(true).build().newThread(this::prefetch);
+		this.receiver.start();
 	}
 
+	/**
+	 * Moves on to the next prefetched messages, waiting for the receiver if none are buffered.
+	 * The messages handed out before stay in flight until they are acknowledged or released.
+	 *
+	 * @return false when there are no more messages to process.
+	 */
 	public boolean next() {
+		currentMessages = take();
+		return !currentMessages.isEmpty();
+	}
+
+	/**
+	 * @return The messages handed out by the last {@link #next()}.
+	 */
+	public List<ReceivedMessage> getCurrentMessages() {
+		return currentMessages;
+	}
+
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	/**
+	 * @return true when {@link #next()} can move on without waiting for a receive.
+	 */
+	public boolean hasPrefetched() {
+		return !prefetched.isEmpty();
+	}
+
+	/**
+	 * Deletes the messages from the queue, up to ten per request.
+	 *
+	 * @param messages
+	 */
+	public void acknowledge(Collection<ReceivedMessage> messages) {
+		List<ReceivedMessage> pending = new ArrayList<>(messages);
+		for (int from = 0; from < pending.size(); from += MAX_BATCH_ENTRIES) {
+			List<ReceivedMessage> batch = pending.subList(from, Math.min(from + MAX_BATCH_ENTRIES, pending.size()));
+			List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+			for (int i = 0; i < batch.size(); i++) {
+				entries.add(new DeleteMessageBatchRequestEntry(String.valueOf(i), batch.get(i).getReceiptHandle()));
+			}
+
+			try {
+				LOGGER.debug("Deleting {} SQS messages", entries.size());
+				List<BatchResultErrorEntry> failed = sqsClient.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, entries)).getFailed();
+				for (BatchResultErrorEntry error : failed) {
+					LOGGER.error("Failed to delete SQS message {}: {} {}", batch.get(Integer.parseInt(error.getId())), error.getCode(), error.getMessage());
+				}
+			} catch (AmazonClientException e) {
+				LOGGER.error("Exception deleting messages from SQS queue {}", queueUrl, e);
+			}
+			batch.forEach(message -> inFlight.remove(message.getReceiptHandle()));
+		}
+	}
+
+	/**
+	 * Makes the messages visible on the queue again straight away so they are redelivered, up to ten per request.
+	 *
+	 * @param messages
+	 */
+	public void release(Collection<ReceivedMessage> messages) {
+		List<ReceivedMessage> pending = new ArrayList<>(messages);
+		for (int from = 0; from < pending.size(); from += MAX_BATCH_ENTRIES) {
+			List<ReceivedMessage> batch = pending.subList(from, Math.min(from + MAX_BATCH_ENTRIES, pending.size()));
+			batch.forEach(message -> inFlight.remove(message.getReceiptHandle()));
+			LOGGER.warn("Releasing {} SQS messages for redelivery: {}", batch.size(), batch);
+			changeVisibility(batch, 0);
+		}
+	}
+
+	public void shutdown() {
+		receiver.interrupt();
+		heartbeat.shutdownNow();
+	}
+
+	/**
+	 * Takes the next prefetched message and up to a receive's worth of any others already buffered.
+	 *
+	 * @return
+	 */
+	private List<ReceivedMessage> take() {
 		try {
-			if (lastReceiptHandle != null) {
-				DeleteMessageRequest deleteMessageRequest = new DeleteMessageRequest();
-				deleteMessageRequest.setQueueUrl(queueUrl);
-				deleteMessageRequest.setReceiptHandle(lastReceiptHandle);
+			ReceivedMessage message = prefetched.take();
+			if (message == END_OF_QUEUE) {
+				prefetched.put(END_OF_QUEUE);
+				return Collections.emptyList();
+			}
+
+			List<ReceivedMessage> messages = new ArrayList<>(config.getMaxMessages());
+			messages.add(message);
+			prefetched.drainTo(messages, config.getMaxMessages() - 1);
+			if (messages.remove(END_OF_QUEUE)) {
+				prefetched.put(END_OF_QUEUE);
+			}
+			return messages;
 
-				LOGGER.debug("Deleting SQS message {}", lastReceiptHandle);
-				sqsClient.deleteMessage(deleteMessageRequest);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Collections.emptyList();
+		}
+	}
 
-				lastReceiptHandle = null;
+	/**
+	 * Run by the receiver thread, keeps the prefetch buffer full until the queue runs dry.
+	 */
+	private void prefetch() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				List<ReceivedMessage> messages = receive();
+				if (messages.isEmpty()) {
+					break;
+				}
+				for (ReceivedMessage message : messages) {
+					prefetched.put(message);
+				}
 			}
+			prefetched.put(END_OF_QUEUE);
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			prefetched.offer(END_OF_QUEUE);
+		}
+	}
 
-			ReceiveMessageRequest receiveMessageRequest = new ReceiveMessageRequest();
-			receiveMessageRequest.setMaxNumberOfMessages(1);
-			receiveMessageRequest.setQueueUrl(queueUrl);
-			receiveMessageRequest.setWaitTimeSeconds(10);
+	/**
+	 * Long-polls the queue until messages arrive.  Outside of daemon mode an empty poll ends the stream.
+	 *
+	 * @return
+	 */
+	private List<ReceivedMessage> receive() {
+		ReceiveMessageRequest receiveMessageRequest = new ReceiveMessageRequest(queueUrl)
+				.withMaxNumberOfMessages(config.getMaxMessages())
+				.withWaitTimeSeconds(config.getWaitTimeSeconds())
+				.withVisibilityTimeout(config.getVisibilityTimeoutSeconds());
 
-			List<Message> messageList = sqsClient.receiveMessage(receiveMessageRequest).getMessages();
-			if (messageList.isEmpty()) {
-				LOGGER.info("No more messages in SQS queue {}", queueUrl);
-				return false;
+		long backoff = MIN_IDLE_BACKOFF_MILLIS;
+		while (true) {
+			try {
+				long receivedAt = System.currentTimeMillis();
+				long startTime = System.nanoTime();
+				List<Message> messageList = sqsClient.receiveMessage(receiveMessageRequest).getMessages();
+				if (!messageList.isEmpty()) {
+					List<ReceivedMessage> received = decode(messageList, receivedAt);
+					receiveMetrics.record(startTime, received.size(), messageList.size() - received.size());
+					if (!received.isEmpty()) {
+						return received;
+					}
+					continue;
+				}
+				if (!daemon) {
+					LOGGER.info("No more messages in SQS queue {}", queueUrl);
+					return Collections.emptyList();
+				}
+				LOGGER.debug("SQS queue {} is empty, polling again in {} ms", queueUrl, backoff);
+
+			} catch (AmazonClientException e) {
+				LOGGER.error("Exception receiving messages from SQS queue {}", queueUrl, e);
+				if (!daemon) {
+					return Collections.emptyList();
+				}
 			}
 
-			Message message = messageList.remove(0);
-			lastReceiptHandle = message.getReceiptHandle();
-			String body = message.getBody();
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return Collections.emptyList();
+			}
+			backoff = Math.min(backoff * 2, TimeUnit.SECONDS.toMillis(config.getMaxIdleBackoffSeconds()));
+		}
+	}
 
-			LOGGER.debug("Received SQS message {}", message.getReceiptHandle());
+	private List<ReceivedMessage> decode(List<Message> messageList, long receivedAt) {
+		long visibleAt = receivedAt + TimeUnit.SECONDS.toMillis(config.getVisibilityTimeoutSeconds());
+		List<ReceivedMessage> received = new ArrayList<>(messageList.size());
+		for (Message message : messageList) {
+			LOGGER.debug("Received SQS message {}", message.getMessageId());
+			try {
+				QueueMessage queueMessage = QueueMessageCodec.decode(message.getBody());
+				ReceivedMessage receivedMessage = new ReceivedMessage(message.getMessageId(), message.getReceiptHandle(), queueMessage.getDocumentIdList(),
+						queueMessage.getAttempts(), visibleAt);
+				inFlight.put(receivedMessage.getReceiptHandle(), receivedMessage);
+				received.add(receivedMessage);
 
-			QueueMessage queueMessage = objectMapper.readValue(body, QueueMessage.class);
-			obtrudeQueue(queueMessage.getDocumentIdList());
+			} catch (IOException e) {
+				// Left on the queue so the redrive policy can move it aside once it has been received too often.
+				LOGGER.error("Exception parsing message {} from SQS queue {}", message.getMessageId(), queueUrl, e);
+			}
+		}
+		return received;
+	}
 
-			return true;
+	/**
+	 * Pushes back the visibility timeout of the in-flight messages that would otherwise become visible before the next heartbeat.
+	 */
+	private void extendVisibility() {
+		long now = System.currentTimeMillis();
+		long threshold = now + TimeUnit.SECONDS.toMillis(2L * config.getHeartbeatSeconds());
+		List<ReceivedMessage> expiring = inFlight.values().stream()
+				.filter(message -> message.getVisibleAt() < threshold)
+				.collect(Collectors.toList());
 
-		} catch (AmazonClientException e) {
-			LOGGER.error("Exception receiving messages from SQS queue {}", queueUrl, e);
+		try {
+			for (int from = 0; from < expiring.size(); from += MAX_BATCH_ENTRIES) {
+				List<ReceivedMessage> batch = expiring.subList(from, Math.min(from + MAX_BATCH_ENTRIES, expiring.size()));
+				LOGGER.debug("Extending the visibility of {} SQS messages", batch.size());
+				if (changeVisibility(batch, config.getVisibilityTimeoutSeconds())) {
+					long visibleAt = now + TimeUnit.SECONDS.toMillis(config.getVisibilityTimeoutSeconds());
+					batch.forEach(message -> message.setVisibleAt(visibleAt));
+				}
+			}
+		} catch (RuntimeException e) {
+			LOGGER.error("Exception in the SQS heartbeat", e);
+		}
+	}
 
-		} catch (IOException e) {
-			LOGGER.error("Exception parsing message from SQS queue {}", queueUrl, e);
+	/**
+	 * Changes the visibility timeout of up to ten messages in one request.
+	 *
+	 * @param batch
+	 * @param visibilityTimeoutSeconds
+	 * @return false when the request itself failed.
+	 */
+	private boolean changeVisibility(List<ReceivedMessage> batch, int visibilityTimeoutSeconds) {
+		List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			entries.add(new ChangeMessageVisibilityBatchRequestEntry(String.valueOf(i), batch.get(i).getReceiptHandle())
+					.withVisibilityTimeout(visibilityTimeoutSeconds));
 		}
 
-		return false;
+		try {
+			List<BatchResultErrorEntry> failed = sqsClient.changeMessageVisibilityBatch(new ChangeMessageVisibilityBatchRequest(queueUrl, entries)).getFailed();
+			for (BatchResultErrorEntry error : failed) {
+				LOGGER.warn("Failed to change the visibility of SQS message {}: {} {}", batch.get(Integer.parseInt(error.getId())), error.getCode(), error.getMessage());
+			}
+			return true;
+		} catch (AmazonClientException e) {
+			LOGGER.error("Exception changing message visibility on SQS queue {}", queueUrl, e);
+			return false;
+		}
 	}
 }
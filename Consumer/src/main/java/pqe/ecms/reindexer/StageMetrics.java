@@ -0,0 +1,55 @@
+package pqe.ecms.reindexer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The success and failure counts and the latency of a single stage of the consumer.
+ */
+public class StageMetrics {
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder succeeded = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	/**
+	 * Records one call of the stage.
+	 *
+	 * @param startNanos The {@link System#nanoTime()} at which the call started.
+	 * @param succeeded  The number of documents that passed the stage.
+	 * @param failed     The number of documents that failed the stage.
+	 */
+	public void record(long startNanos, long succeeded, long failed) {
+		latency.recordSince(startNanos);
+		this.succeeded.add(succeeded);
+		this.failed.add(failed);
+	}
+
+	/**
+	 * Counts documents without timing them.
+	 *
+	 * @param count
+	 */
+	public void count(long count) {
+		succeeded.add(count);
+	}
+
+	public long getSucceeded() {
+		return succeeded.longValue();
+	}
+
+	public long getFailed() {
+		return failed.longValue();
+	}
+
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public String toString() {
+		if (latency.getCount() == 0) {
+			return String.format("ok=%d, failed=%d", getSucceeded(), getFailed());
+		}
+		return String.format("ok=%d, failed=%d, %s", getSucceeded(), getFailed(), latency);
+	}
+}
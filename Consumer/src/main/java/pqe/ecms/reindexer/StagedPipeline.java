@@ -0,0 +1,296 @@
+package pqe.ecms.reindexer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pqe.ecms.reindexer.exceptions.WorkflowException;
+import pqe.ecms.reindexer.workflow.AsyncWorkflowStage;
+import pqe.ecms.reindexer.workflow.BatchWorkflowStage;
+import pqe.ecms.reindexer.workflow.IndexingDocument;
+import pqe.ecms.reindexer.workflow.WorkflowStage;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs {@link IndexingDocument}s through an optional leading {@link BatchWorkflowStage} followed by an ordered set of {@link WorkflowStage}s
+ * and {@link AsyncWorkflowStage}s. <br/>
+ * Every pooled stage has its own bounded pool of worker threads fed by a bounded hand-off queue, so the stages work on different documents at the same time.
+ * When the queue of a stage is full the thread handing off to it blocks, pushing back on the stages in front of it.
+ * Asynchronous stages manage their own concurrency and hand each document on as soon as its future completes.
+ * Documents failing a stage are handed to the {@link FailureReporter}, when there is one.
+ */
+public class StagedPipeline {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StagedPipeline.class);
+
+	private BatchStage batchStage;
+	private final List<DocumentStage> stages = new ArrayList<>();
+	private final ConsumerMetrics metrics;
+	private FailureReporter failureReporter;
+
+	/**
+	 * @param metrics Records the documents passing and failing each stage and how long the stage took, under the stage name.
+	 */
+	public StagedPipeline(ConsumerMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param failureReporter Receives every document that fails a stage.
+	 * @return
+	 */
+	public StagedPipeline setFailureReporter(FailureReporter failureReporter) {
+		this.failureReporter = failureReporter;
+		return this;
+	}
+
+	/**
+	 * Sets the stage that every batch goes through before its documents are handed to the per document stages.
+	 * Batches are split into chunks of the configured batch size which are run in parallel.
+	 *
+	 * @param name               The name of the stage used for metrics and thread names.
+	 * @param description        Describes the work of the stage when logging a failure.
+	 * @param config             The pool size, queue depth and batch size of the stage.
+	 * @param batchWorkflowStage The work done by the stage.
+	 * @return
+	 */
+	public StagedPipeline setBatchStage(String name, String description, ConsumerConfig.StageConfig config, BatchWorkflowStage batchWorkflowStage) {
+		batchStage = new BatchStage(name, description, config, batchWorkflowStage);
+		LOGGER.info("Stage {} running {} threads with a queue of {} and batches of {}", name, config.getThreads(), config.getQueueDepth(), config.getBatchSize());
+		return this;
+	}
+
+	/**
+	 * Appends a stage to the pipeline.
+	 *
+	 * @param name          The name of the stage used for metrics and thread names.
+	 * @param description   Describes the work of the stage when logging a failure.
+	 * @param config        The pool size and queue depth of the stage.
+	 * @param workflowStage The work done by the stage.
+	 * @return
+	 */
+	public StagedPipeline addStage(String name, String description, ConsumerConfig.StageConfig config, WorkflowStage workflowStage) {
+		stages.add(new PooledStage(name, description, config, workflowStage));
+		LOGGER.info("Stage {} running {} threads with a queue of {}", name, config.getThreads(), config.getQueueDepth());
+		return this;
+	}
+
+	/**
+	 * Appends a stage that runs asynchronously.
+	 *
+	 * @param name               The name of the stage used for metrics.
+	 * @param description        Describes the work of the stage when logging a failure.
+	 * @param asyncWorkflowStage The work done by the stage, shut down with the pipeline.
+	 * @return
+	 */
+	public StagedPipeline addAsyncStage(String name, String description, AsyncWorkflowStage asyncWorkflowStage) {
+		stages.add(new AsyncStage(name, description, asyncWorkflowStage));
+		return this;
+	}
+
+	/**
+	 * Feeds the documents through every stage.  Documents that fail a stage are logged and left out of the result.
+	 *
+	 * @param documents
+	 * @return The documents that made it through all of the stages, completed once every document has finished.
+	 */
+	public CompletableFuture<List<IndexingDocument>> process(List<IndexingDocument> documents) {
+		List<CompletableFuture<Optional<IndexingDocument>>> futures = new ArrayList<>(documents.size());
+
+		if (batchStage == null) {
+			documents.forEach(document -> futures.add(processDocument(CompletableFuture.completedFuture(Optional.of(document)))));
+		} else {
+			int batchSize = batchStage.batchSize;
+			for (int from = 0; from < documents.size(); from += batchSize) {
+				List<IndexingDocument> chunk = documents.subList(from, Math.min(from + batchSize, documents.size()));
+				CompletableFuture<Set<IndexingDocument>> batch = CompletableFuture.supplyAsync(() -> batchStage.run(chunk), batchStage.executor);
+				chunk.forEach(document -> futures.add(processDocument(batch.thenApply(passed -> passed.contains(document) ? Optional.of(document) : Optional.empty()))));
+			}
+		}
+
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+				.thenApply(done -> futures.stream()
+						.map(CompletableFuture::join)
+						.filter(Optional::isPresent)
+						.map(Optional::get)
+						.collect(Collectors.toList()));
+	}
+
+	private CompletableFuture<Optional<IndexingDocument>> processDocument(CompletableFuture<Optional<IndexingDocument>> future) {
+		for (DocumentStage stage : stages) {
+			future = stage.submit(future);
+		}
+		return future;
+	}
+
+	public void shutdown() {
+		if (batchStage != null) {
+			ExecutorUtil.shutdownExecutorService(batchStage.executor);
+		}
+		stages.forEach(DocumentStage::shutdown);
+	}
+
+	private void reportFailure(IndexingDocument document, String stage, Throwable cause) {
+		if (failureReporter != null) {
+			failureReporter.report(document, stage, cause);
+		}
+	}
+
+	private static ThreadPoolExecutor newStageExecutor(String name, ConsumerConfig.StageConfig config) {
+		return new ThreadPoolExecutor(config.getThreads(), config.getThreads(), 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(config.getQueueDepth()),
+				new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build(),
+				(r, executor) -> {
+					if (executor.isShutdown()) {
+						throw new RejectedExecutionException("Stage " + name + " has been shut down");
+					}
+					try {
+						executor.getQueue().put(r);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted handing off to stage " + name, e);
+					}
+				});
+	}
+
+	private class BatchStage {
+		private final String name;
+		private final String description;
+		private final int batchSize;
+		private final BatchWorkflowStage batchWorkflowStage;
+		private final ThreadPoolExecutor executor;
+		private final StageMetrics stageMetrics;
+
+		public BatchStage(String name, String description, ConsumerConfig.StageConfig config, BatchWorkflowStage batchWorkflowStage) {
+			this.name = name;
+			this.description = description;
+			this.stageMetrics = metrics.getStage(name);
+			this.batchSize = config.getBatchSize();
+			this.batchWorkflowStage = batchWorkflowStage;
+			this.executor = newStageExecutor(name, config);
+		}
+
+		private Set<IndexingDocument> run(List<IndexingDocument> documents) {
+			long startTime = System.nanoTime();
+			try {
+				Set<IndexingDocument> passed = Collections.newSetFromMap(new IdentityHashMap<>());
+				passed.addAll(batchWorkflowStage.apply(documents));
+				stageMetrics.record(startTime, passed.size(), documents.size() - passed.size());
+				documents.stream()
+						.filter(document -> !passed.contains(document))
+						.forEach(document -> {
+							LOGGER.warn("Failed {}: {}", description, document.getDocumentId());
+							reportFailure(document, name, null);
+						});
+				return passed;
+			} catch (WorkflowException | RuntimeException e) {
+				stageMetrics.record(startTime, 0, documents.size());
+				LOGGER.warn("Exception {} for {} documents", description, documents.size(), e);
+				documents.forEach(document -> reportFailure(document, name, e));
+				return Collections.emptySet();
+			}
+		}
+	}
+
+	private abstract class DocumentStage {
+		protected final String name;
+		protected final String description;
+		protected final StageMetrics stageMetrics;
+
+		protected DocumentStage(String name, String description) {
+			this.name = name;
+			this.description = description;
+			this.stageMetrics = metrics.getStage(name);
+		}
+
+		/**
+		 * Chains the work of this stage onto the document's future.
+		 *
+		 * @param future
+		 * @return
+		 */
+		protected abstract CompletableFuture<Optional<IndexingDocument>> submit(CompletableFuture<Optional<IndexingDocument>> future);
+
+		protected abstract void shutdown();
+
+		protected Optional<IndexingDocument> succeeded(IndexingDocument document, long startTime) {
+			stageMetrics.record(startTime, 1, 0);
+			return Optional.of(document);
+		}
+
+		protected Optional<IndexingDocument> failed(IndexingDocument document, long startTime, Throwable e) {
+			stageMetrics.record(startTime, 0, 1);
+			LOGGER.warn("Exception {}: {}", description, document.getDocumentId(), e);
+			reportFailure(document, name, e);
+			return Optional.empty();
+		}
+	}
+
+	private class PooledStage extends DocumentStage {
+		private final WorkflowStage workflowStage;
+		private final ThreadPoolExecutor executor;
+
+		public PooledStage(String name, String description, ConsumerConfig.StageConfig config, WorkflowStage workflowStage) {
+			super(name, description);
+			this.workflowStage = workflowStage;
+			this.executor = newStageExecutor(name, config);
+		}
+
+		@Override
+		protected CompletableFuture<Optional<IndexingDocument>> submit(CompletableFuture<Optional<IndexingDocument>> future) {
+			return future.thenApplyAsync(this::run, executor);
+		}
+
+		@Override
+		protected void shutdown() {
+			ExecutorUtil.shutdownExecutorService(executor);
+		}
+
+		private Optional<IndexingDocument> run(Optional<IndexingDocument> document) {
+			if (!document.isPresent()) {
+				return document;
+			}
+
+			long startTime = System.nanoTime();
+			try {
+				return succeeded(workflowStage.apply(document.get()), startTime);
+			} catch (WorkflowException | RuntimeException e) {
+				return failed(document.get(), startTime, e);
+			}
+		}
+	}
+
+	private class AsyncStage extends DocumentStage {
+		private final AsyncWorkflowStage asyncWorkflowStage;
+
+		public AsyncStage(String name, String description, AsyncWorkflowStage asyncWorkflowStage) {
+			super(name, description);
+			this.asyncWorkflowStage = asyncWorkflowStage;
+		}
+
+		@Override
+		protected CompletableFuture<Optional<IndexingDocument>> submit(CompletableFuture<Optional<IndexingDocument>> future) {
+			return future.thenCompose(document -> {
+				if (!document.isPresent()) {
+					return CompletableFuture.completedFuture(document);
+				}
+
+				long startTime = System.nanoTime();
+				return asyncWorkflowStage.apply(document.get())
+						.handle((result, e) -> e == null ? succeeded(result, startTime) : failed(document.get(), startTime, e instanceof CompletionException ? e.getCause() : e));
+			});
+		}
+
+		@Override
+		protected void shutdown() {
+			asyncWorkflowStage.shutdown();
+		}
+	}
+}
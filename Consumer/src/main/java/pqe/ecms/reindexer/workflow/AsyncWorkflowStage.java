@@ -0,0 +1,13 @@
+package pqe.ecms.reindexer.workflow;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A step of the indexing workflow that starts its work without blocking the caller and completes the returned future when done.
+ * A failed document completes the future exceptionally.
+ */
+public interface AsyncWorkflowStage {
+	CompletableFuture<IndexingDocument> apply(IndexingDocument document);
+
+	void shutdown();
+}
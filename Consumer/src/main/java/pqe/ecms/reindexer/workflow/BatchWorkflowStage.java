@@ -0,0 +1,18 @@
+package pqe.ecms.reindexer.workflow;
+
+import pqe.ecms.reindexer.exceptions.WorkflowException;
+
+import java.util.List;
+
+/**
+ * A step of the indexing workflow that handles many documents in one go, such as fetching the metadata of a whole message with a few queries.
+ */
+@FunctionalInterface
+public interface BatchWorkflowStage {
+	/**
+	 * @param documents
+	 * @return The documents that were handled successfully, documents left out have failed the stage.
+	 * @throws WorkflowException When the whole batch has failed.
+	 */
+	List<IndexingDocument> apply(List<IndexingDocument> documents) throws WorkflowException;
+}
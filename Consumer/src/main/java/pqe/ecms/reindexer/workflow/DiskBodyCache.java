@@ -0,0 +1,292 @@
+package pqe.ecms.reindexer.workflow;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A read-through cache of S3 document bodies on the local disk. <br/>
+ * The keys of the bodies are immutable per version, so a cached body never goes stale.  Every body is stored gzipped in a file named after
+ * the SHA-256 of its bucket and key, spread over 256 directories, and read back through a memory map.
+ * The least recently used bodies are deleted once the files outgrow the size cap.  Recency survives a restart as the modification time of the files.
+ */
+public class DiskBodyCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DiskBodyCache.class);
+
+	private static final String SUFFIX = ".xml.gz";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	private static final Pattern SHARD_NAME = Pattern.compile("[0-9a-f]{2}");
+	private static final Pattern BODY_NAME = Pattern.compile("[0-9a-f]{64}" + Pattern.quote(SUFFIX));
+
+	private final Path directory;
+	private final long maxBytes;
+
+	/**
+	 * The size of every cached file by path, in access order.
+	 */
+	private final LinkedHashMap<Path, Long> entries = new LinkedHashMap<>(1024, 0.75f, true);
+	private long totalBytes;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder writeCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * Opens the cache in the directory, indexing the bodies already cached by their modification time and deleting the temporary files of interrupted writes.
+	 * Only the shard directories and the files the cache names itself are touched, anything else in the directory is left alone.
+	 *
+	 * @param directory
+	 * @param maxBytes  The most bytes of compressed bodies kept.
+	 * @throws IOException
+	 */
+	public DiskBodyCache(Path directory, long maxBytes) throws IOException {
+		this.directory = directory.toAbsolutePath();
+		this.maxBytes = maxBytes;
+		Files.createDirectories(this.directory);
+
+		List<Map.Entry<Path, BasicFileAttributes>> files = new ArrayList<>();
+		try (DirectoryStream<Path> shards = Files.newDirectoryStream(this.directory,
+				path -> SHARD_NAME.matcher(path.getFileName().toString()).matches() && Files.isDirectory(path))) {
+			for (Path shard : shards) {
+				try (DirectoryStream<Path> paths = Files.newDirectoryStream(shard, Files::isRegularFile)) {
+					for (Path path : paths) {
+						String name = path.getFileName().toString();
+						if (name.endsWith(TEMPORARY_SUFFIX)) {
+							delete(path);
+						} else if (BODY_NAME.matcher(name).matches()) {
+							try {
+								files.add(new AbstractMap.SimpleEntry<>(path, Files.readAttributes(path, BasicFileAttributes.class)));
+							} catch (IOException e) {
+								LOGGER.debug("Skipping cached body {}", path, e);
+							}
+						}
+					}
+				}
+			}
+		}
+		files.sort(Comparator.comparing(entry -> entry.getValue().lastModifiedTime()));
+		synchronized (entries) {
+			for (Map.Entry<Path, BasicFileAttributes> file : files) {
+				entries.put(file.getKey(), file.getValue().size());
+				totalBytes += file.getValue().size();
+			}
+			evict();
+		}
+		LOGGER.info("Caching S3 bodies in {} up to {} MB, {} bodies of {} MB cached", this.directory, maxBytes >> 20, entries.size(), totalBytes >> 20);
+	}
+
+	/**
+	 * @param bucket
+	 * @param key
+	 * @return The cached body, or null when it isn't cached.
+	 */
+	public String get(String bucket, String key) {
+		Path path = pathOf(bucket, key);
+		synchronized (entries) {
+			if (entries.get(path) == null) {
+				missCount.increment();
+				return null;
+			}
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			String text = inflate(mapped);
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+			hitCount.increment();
+			return text;
+
+		} catch (NoSuchFileException e) {
+			forget(path);
+		} catch (IOException e) {
+			LOGGER.warn("Dropping unreadable cached body {}", path, e);
+			delete(path);
+			forget(path);
+		}
+		missCount.increment();
+		return null;
+	}
+
+	/**
+	 * Caches a body, evicting the least recently used bodies when the cache has outgrown its cap.
+	 * Failing to write is logged and otherwise ignored, the body is simply fetched again next time.
+	 *
+	 * @param bucket
+	 * @param key
+	 * @param text
+	 */
+	public void put(String bucket, String key, String text) {
+		Path path = pathOf(bucket, key);
+		Path temporary = null;
+		try {
+			Files.createDirectories(path.getParent());
+			temporary = Files.createTempFile(path.getParent(), null, TEMPORARY_SUFFIX);
+			try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary), 8192)) {
+				out.write(text.getBytes(StandardCharsets.UTF_8));
+			}
+			long size = Files.size(temporary);
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			writeCount.increment();
+
+			synchronized (entries) {
+				Long previous = entries.put(path, size);
+				totalBytes += size - (previous == null ? 0 : previous);
+				evict();
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Exception caching body of {} {}", bucket, key, e);
+			if (temporary != null) {
+				delete(temporary);
+			}
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.longValue();
+	}
+
+	public long getMissCount() {
+		return missCount.longValue();
+	}
+
+	/**
+	 * Summarizes the cache for status logging.
+	 *
+	 * @return
+	 */
+	public String getStatistics() {
+		long hits = hitCount.longValue();
+		long lookups = hits + missCount.longValue();
+		int count;
+		long bytes;
+		synchronized (entries) {
+			count = entries.size();
+			bytes = totalBytes;
+		}
+		return String.format("bodyCacheHits=%d, bodyCacheMisses=%d, bodyCacheHitRate=%.1f%%, bodyCacheWrites=%d, bodyCacheEvictions=%d, bodyCacheBodies=%d, bodyCacheMB=%d",
+				hits, missCount.longValue(), lookups == 0 ? 0.0 : hits * 100.0 / lookups, writeCount.longValue(), evictionCount.longValue(), count, bytes >> 20);
+	}
+
+	/**
+	 * Deletes the least recently used files until the cache fits its cap.  Called holding the lock on the entries.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Path, Long>> eldest = entries.entrySet().iterator();
+		while (totalBytes > maxBytes && eldest.hasNext()) {
+			Map.Entry<Path, Long> entry = eldest.next();
+			eldest.remove();
+			totalBytes -= entry.getValue();
+			delete(entry.getKey());
+			evictionCount.increment();
+		}
+	}
+
+	private void forget(Path path) {
+		synchronized (entries) {
+			Long size = entries.remove(path);
+			if (size != null) {
+				totalBytes -= size;
+			}
+		}
+	}
+
+	private static void delete(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			LOGGER.warn("Exception deleting cached body {}", path, e);
+		}
+	}
+
+	private Path pathOf(String bucket, String key) {
+		String name = sha256(bucket + "/" + key);
+		return directory.resolve(name.substring(0, 2)).resolve(name + SUFFIX);
+	}
+
+	private static String inflate(ByteBuffer compressed) throws IOException {
+		ByteArrayOutputStream text = new ByteArrayOutputStream(compressed.remaining() * 4);
+		try (InputStream in = new GZIPInputStream(new ByteBufferInputStream(compressed), 8192)) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				text.write(buffer, 0, read);
+			}
+		}
+		return new String(text.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String sha256(String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * Reads a memory mapped file without copying it onto the heap first.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -11,16 +11,28 @@ import pqe.ecms.search.map.ecmsindex.EcmsField;
 import pqe.ecms.search.map.ecmsindex.EcmsMapper;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
-public class DocumentMapper {
+/**
+ * Maps documents for Solr on any number of threads. <br/>
+ * An {@link EcmsMapper} holds the document between {@link EcmsMapper#initDocument} and {@link EcmsMapper#mapAllFields()},
+ * so every thread maps with an instance of its own instead of sharing the singleton.
+ */
+public class DocumentMapper implements WorkflowStage {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(DocumentMapper.class);
 
+	private static final List<EcmsField> FIELDS = Collections.unmodifiableList(Arrays.asList(EcmsField.values()));
+
+	private final ThreadLocal<EcmsMapper> mappers = ThreadLocal.withInitial(EcmsMapper::new);
+
+	@Override
 	public IndexingDocument apply(IndexingDocument document) throws WorkflowException {
 
 		try {
-			EcmsMapper ecmsMapper = EcmsMapper.getInstance();
-			ecmsMapper.initDocument(document.getDocument(), Arrays.asList(EcmsField.values()), EcmsClientFactory.getInstance());
+			EcmsMapper ecmsMapper = mappers.get();
+			ecmsMapper.initDocument(document.getDocument(), FIELDS, EcmsClientFactory.getInstance());
 
 			ecmsMapper.updateDocumentId(document.getDocumentId());
 			document.setMappedDocument(ecmsMapper.mapAllFields());
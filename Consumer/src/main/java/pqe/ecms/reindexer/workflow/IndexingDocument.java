@@ -1,5 +1,6 @@
 package pqe.ecms.reindexer.workflow;
 
+import org.apache.solr.common.SolrInputDocument;
 import pqe.ecms.client.editorialstorage.domain.MappedDocument;
 import pqe.ecms.rest.message.document.Document;
 
@@ -10,10 +11,13 @@ public class IndexingDocument {
 	private Document document;
 
 	private MappedDocument mappedDocument;
+	private SolrInputDocument solrDocument;
 
 	private String bucket;
 	private String s3Partition;
 
+	private int attempts;
+
 	public Long getDocumentId() {
 		return documentId;
 	}
@@ -38,6 +42,14 @@ public class IndexingDocument {
 		this.mappedDocument = mappedDocument;
 	}
 
+	public SolrInputDocument getSolrDocument() {
+		return solrDocument;
+	}
+
+	public void setSolrDocument(SolrInputDocument solrDocument) {
+		this.solrDocument = solrDocument;
+	}
+
 	public String getS3Partition() {
 		return s3Partition;
 	}
@@ -62,6 +74,17 @@ public class IndexingDocument {
 		this.bucket = bucket;
 	}
 
+	/**
+	 * @return The number of times the document has failed to index before.
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
 	@Override
 	public String toString() {
 		return "IndexingDocument{" +
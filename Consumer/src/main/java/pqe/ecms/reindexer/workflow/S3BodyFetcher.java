@@ -0,0 +1,61 @@
+package pqe.ecms.reindexer.workflow;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pqe.ecms.reindexer.exceptions.WorkflowException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches document bodies from S3 with a fixed number of GET requests in flight. <br/>
+ * GETs are queued the moment a document's metadata is known, so the fetches for a whole batch are started together,
+ * and every body is handed on as soon as its own request completes.
+ */
+public class S3BodyFetcher implements AsyncWorkflowStage {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(S3BodyFetcher.class);
+
+	private final WorkflowStage s3Reader;
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * @param s3Reader    Performs the blocking GET for a single document.
+	 * @param maxInFlight The number of GET requests that may be running at once.
+	 */
+	public S3BodyFetcher(WorkflowStage s3Reader, int maxInFlight) {
+		this.s3Reader = s3Reader;
+		this.executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(),
+				new ThreadFactoryBuilder().setNameFormat("fetchDocumentBody-%d").setDaemon(true).build());
+		LOGGER.info("Fetching S3 bodies with up to {} requests in flight", maxInFlight);
+	}
+
+	@Override
+	public CompletableFuture<IndexingDocument> apply(IndexingDocument document) {
+		CompletableFuture<IndexingDocument> future = new CompletableFuture<>();
+		executor.execute(() -> {
+			try {
+				future.complete(s3Reader.apply(document));
+			} catch (WorkflowException | RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * @return The number of GETs waiting for a free request slot.
+	 */
+	public int getPending() {
+		return executor.getQueue().size();
+	}
+
+	@Override
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
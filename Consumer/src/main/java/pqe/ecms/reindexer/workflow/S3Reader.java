@@ -13,16 +13,27 @@ import pqe.ecms.reindexer.exceptions.WorkflowException;
 
 import java.io.IOException;
 
-public class S3Reader {
+public class S3Reader implements WorkflowStage {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(S3Reader.class);
 
 	private String instance;
+	private DiskBodyCache cache;
 
 	public S3Reader(String instance) {
+		this(instance, null);
+	}
+
+	/**
+	 * @param instance
+	 * @param cache    Consulted before every GET and filled after it, or null to always read from S3.
+	 */
+	public S3Reader(String instance, DiskBodyCache cache) {
 		this.instance = instance;
+		this.cache = cache;
 	}
 
+	@Override
 	public IndexingDocument apply(IndexingDocument document) throws WorkflowException {
 		if (document.getS3Partition() == null || document.getDocumentId() == null || document.getDocumentVersionId() == null) {
 			LOGGER.error("Null document metadata: {}", document.toString());
@@ -34,14 +45,26 @@ public class S3Reader {
 				document.getS3Partition().replaceAll("/", "_") + "/" + instance + "/" + document.getDocumentId().toString() + "/" + document.getDocumentVersionId().toString() + ".xml"
 		);
 
+		if (cache != null) {
+			String text = cache.get(getObjectRequest.getBucketName(), getObjectRequest.getKey());
+			if (text != null) {
+				LOGGER.debug("Cached key={}", getObjectRequest.getKey());
+				document.getDocument().getBody().setContents(text);
+				return document;
+			}
+		}
+
 		LOGGER.debug("GET key=" + getObjectRequest.getKey());
 		AmazonS3 s3Client = AWSFactory.getS3Client();
 
 		try {
 			S3Object s3Object = s3Client.getObject(getObjectRequest);
-			String text = AmazonS3Helper.readLinesFromAmazon(s3Object);
+			String text = AmazonS3Helper.readBody(s3Object);
 
 			document.getDocument().getBody().setContents(text);
+			if (cache != null) {
+				cache.put(getObjectRequest.getBucketName(), getObjectRequest.getKey(), text);
+			}
 
 		} catch (AmazonClientException e) {
 			if (e instanceof AmazonS3Exception) {
@@ -0,0 +1,23 @@
+package pqe.ecms.reindexer.workflow;
+
+import org.apache.solr.common.SolrInputDocument;
+import pqe.ecms.client.editorialstorage.domain.MappedDocument;
+
+public class SolrDocumentConverter implements WorkflowStage {
+
+	@Override
+	public IndexingDocument apply(IndexingDocument document) {
+		document.setSolrDocument(toSolrInputDocument(document.getMappedDocument()));
+		return document;
+	}
+
+	public static SolrInputDocument toSolrInputDocument(MappedDocument mappedDocument) {
+		SolrInputDocument solrDoc = new SolrInputDocument();
+		for (String field : mappedDocument.fieldSet()) {
+			for (String value : mappedDocument.getFieldValues(field)) {
+				solrDoc.addField(field, value);
+			}
+		}
+		return solrDoc;
+	}
+}
@@ -3,6 +3,7 @@ package pqe.ecms.reindexer.workflow;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pqe.ecms.reindexer.SqlConfig;
+import pqe.ecms.reindexer.SqlDataSource;
 import pqe.ecms.reindexer.exceptions.WorkflowException;
 import pqe.ecms.rest.message.document.Body;
 import pqe.ecms.rest.message.document.Document;
@@ -15,15 +16,26 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
 
-public class SqlReader {
+public class SqlReader implements WorkflowStage, BatchWorkflowStage {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(SqlReader.class);
 
-	private static final String SELECT_DOCUMENT = "" +
+	/**
+	 * IN lists are padded up to the next power of two, capped at this size, so only a handful of distinct statements are ever prepared.
+	 */
+	private static final int MAX_IN_LIST = 512;
+
+	private static final String SELECT_DOCUMENTS = "" +
 			"SELECT " +
+			"  d.document_pk, " +
 			"  d.create_date, " +
 			"  lp.legacy_platform, " +
 			"  d.legacy_id, " +
@@ -43,17 +55,17 @@ public class SqlReader {
 			"JOIN documents.document_schemas s ON v.schema_fk = s.schema_id " +
 			"JOIN documents.legacy_platforms lp ON d.lp_id = lp.lp_id " +
 			"JOIN documents.buckets b ON d.bucket_fk = b.bucket_id " +
-			"WHERE d.document_pk = ? " +
-			"ORDER BY v.version DESC";
+			"WHERE d.document_pk IN (%s) " +
+			"AND v.version = (SELECT MAX(lv.version) FROM documents.document_versions lv WHERE lv.document_fk = d.document_pk)";
 
 	private static final String SELECT_EXTERNALIDS = "" +
 			"SELECT " +
+			"  di.document_fk, " +
 			"  di.docid_platform, " +
 			"  di.docid_value, " +
 			"  di.docid_date " +
-			"FROM documents.documents d " +
-			"JOIN documents.document_identifiers di ON d.document_pk = di.document_fk " +
-			"WHERE d.document_pk = ? ";
+			"FROM documents.document_identifiers di " +
+			"WHERE di.document_fk IN (%s)";
 
 	private final SqlConfig sqlConfig;
 
@@ -61,60 +73,65 @@ public class SqlReader {
 		this.sqlConfig = sqlConfig;
 	}
 
+	@Override
 	public IndexingDocument apply(IndexingDocument document) throws WorkflowException {
-		Long id = document.getDocumentId();
+		if (apply(Collections.singletonList(document)).isEmpty()) {
+			LOGGER.warn("No metadata found for document {}", document.getDocumentId());
+			throw new WorkflowException();
+		}
+		return document;
+	}
 
-		Metadata metadata = new Metadata();
-		Body body = new Body();
+	/**
+	 * Fetches the latest version metadata and the external ids for all of the documents using two queries per {@value #MAX_IN_LIST} documents.
+	 *
+	 * @param documents
+	 * @return The documents that metadata was found for.
+	 * @throws WorkflowException
+	 */
+	@Override
+	public List<IndexingDocument> apply(List<IndexingDocument> documents) throws WorkflowException {
+		// The same id can come from more than one message, every copy gets the metadata read once for the id.
+		Map<Long, List<IndexingDocument>> documentMap = new LinkedHashMap<>(documents.size() * 2);
+		for (IndexingDocument document : documents) {
+			Document ecmsDoc = new Document();
+			ecmsDoc.setMetadata(new Metadata());
+			ecmsDoc.setBody(new Body());
+
+			document.setDocument(ecmsDoc);
+			documentMap.computeIfAbsent(document.getDocumentId(), id -> new ArrayList<>(1)).add(document);
+		}
 
-		Document ecmsDoc = new Document();
-		document.setDocument(ecmsDoc);
-		document.getDocument().setMetadata(metadata);
-		document.getDocument().setBody(body);
+		Map<Long, List<DocumentIdentifierMetadata>> externalIdMap = new HashMap<>(documents.size() * 2);
+		List<IndexingDocument> found = new ArrayList<>(documents.size());
+		List<Long> documentIds = new ArrayList<>(documentMap.keySet());
 
 		// Fetch from SQL via JOINs
 
 		try (Connection connection = getConnection(sqlConfig)) {
-			try (PreparedStatement statement = connection.prepareStatement(SELECT_DOCUMENT);
-			     ResultSet resultSet = executeForDocument(statement, document.getDocumentId())) {
-				if (resultSet.next()) {
-					document.setBucket(resultSet.getString("bucket"));
-					document.setS3Partition(resultSet.getString("s3_partition"));
-					document.setDocumentVersionId(resultSet.getLong("document_version_pk"));
-
-					metadata.setExportable(resultSet.getBoolean("exportable"));
-					metadata.setVersion(resultSet.getInt("version"));
-					metadata.setLegacyId(resultSet.getString("legacy_id"));
-					metadata.setLegacyPlatform(resultSet.getString("legacy_platform"));
-					metadata.setClient(resultSet.getString("client"));
-					metadata.setCreatedDate(resultSet.getTimestamp("create_date").toInstant().atZone(ZoneId.of("UTC")));
-					metadata.setImportDate(resultSet.getTimestamp("import_date").toInstant().atZone(ZoneId.of("UTC")));
-					metadata.setLastUpdateDate(resultSet.getTimestamp("version_date").toInstant().atZone(ZoneId.of("UTC")));
-					metadata.setLastUpdateUserId(resultSet.getString("user"));
-					metadata.setLastUpdateUserName(resultSet.getString("user"));
-
-					document.getDocument().setVersion(resultSet.getInt("version"));
-					document.getDocument().setVersionBy(resultSet.getString("user"));
-					document.getDocument().setVersionDate(Date.from(metadata.getLastUpdateDate().toInstant()));
-
-					body.setSchema(resultSet.getString("schemaName"));
-					body.setVersion(resultSet.getString("schemaVersion"));
+			for (int from = 0; from < documentIds.size(); from += MAX_IN_LIST) {
+				List<Long> chunk = documentIds.subList(from, Math.min(from + MAX_IN_LIST, documentIds.size()));
+
+				try (PreparedStatement statement = prepareForDocuments(connection, SELECT_DOCUMENTS, chunk);
+				     ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						for (IndexingDocument document : documentMap.get(resultSet.getLong("document_pk"))) {
+							readDocument(resultSet, document);
+							found.add(document);
+						}
+					}
 				}
-			}
 
-			ExternalId externalId = new ExternalId();
-			List<DocumentIdentifierMetadata> idsList = new ArrayList<>();
-			externalId.setDocumentIdentifierMetadata(idsList);
-			metadata.setExternalIds(externalId);
-
-			try (PreparedStatement statement = connection.prepareStatement(SELECT_EXTERNALIDS);
-			     ResultSet resultSet = executeForDocument(statement, document.getDocumentId())) {
-				while (resultSet.next()) {
-					idsList.add(DocumentIdentifierMetadata.newBuilder()
-							.identifierDate(Date.from(resultSet.getTimestamp("docid_date").toInstant().atZone(ZoneId.of("UTC")).toInstant()))
-							.identifierPlatform(resultSet.getString("docid_platform"))
-							.identifierValue(resultSet.getString("docid_value"))
-							.build());
+				try (PreparedStatement statement = prepareForDocuments(connection, SELECT_EXTERNALIDS, chunk);
+				     ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						externalIdMap.computeIfAbsent(resultSet.getLong("document_fk"), id -> new ArrayList<>())
+								.add(DocumentIdentifierMetadata.newBuilder()
+										.identifierDate(Date.from(resultSet.getTimestamp("docid_date").toInstant().atZone(ZoneId.of("UTC")).toInstant()))
+										.identifierPlatform(resultSet.getString("docid_platform"))
+										.identifierValue(resultSet.getString("docid_value"))
+										.build());
+					}
 				}
 			}
 		} catch (SQLException e) {
@@ -122,25 +139,79 @@ public class SqlReader {
 			throw new WorkflowException(e);
 		}
 
-		return document;
+		for (IndexingDocument document : found) {
+			ExternalId externalId = new ExternalId();
+			externalId.setDocumentIdentifierMetadata(externalIdMap.getOrDefault(document.getDocumentId(), new ArrayList<>()));
+			document.getDocument().getMetadata().setExternalIds(externalId);
+		}
+
+		return found;
 	}
 
-	private ResultSet executeForDocument(PreparedStatement statement, Long documentId) throws SQLException {
-		statement.setLong(1, documentId);
-		return statement.executeQuery();
+	private void readDocument(ResultSet resultSet, IndexingDocument document) throws SQLException {
+		Metadata metadata = document.getDocument().getMetadata();
+		Body body = document.getDocument().getBody();
+
+		document.setBucket(resultSet.getString("bucket"));
+		document.setS3Partition(resultSet.getString("s3_partition"));
+		document.setDocumentVersionId(resultSet.getLong("document_version_pk"));
+
+		metadata.setExportable(resultSet.getBoolean("exportable"));
+		metadata.setVersion(resultSet.getInt("version"));
+		metadata.setLegacyId(resultSet.getString("legacy_id"));
+		metadata.setLegacyPlatform(resultSet.getString("legacy_platform"));
+		metadata.setClient(resultSet.getString("client"));
+		metadata.setCreatedDate(resultSet.getTimestamp("create_date").toInstant().atZone(ZoneId.of("UTC")));
+		metadata.setImportDate(resultSet.getTimestamp("import_date").toInstant().atZone(ZoneId.of("UTC")));
+		metadata.setLastUpdateDate(resultSet.getTimestamp("version_date").toInstant().atZone(ZoneId.of("UTC")));
+		metadata.setLastUpdateUserId(resultSet.getString("user"));
+		metadata.setLastUpdateUserName(resultSet.getString("user"));
+
+		document.getDocument().setVersion(resultSet.getInt("version"));
+		document.getDocument().setVersionBy(resultSet.getString("user"));
+		document.getDocument().setVersionDate(Date.from(metadata.getLastUpdateDate().toInstant()));
+
+		body.setSchema(resultSet.getString("schemaName"));
+		body.setVersion(resultSet.getString("schemaVersion"));
+	}
+
+	/**
+	 * Prepares the query with an IN list padded to the next power of two by repeating the last id.
+	 *
+	 * @param connection
+	 * @param query
+	 * @param documentIds
+	 * @return
+	 * @throws SQLException
+	 */
+	private PreparedStatement prepareForDocuments(Connection connection, String query, List<Long> documentIds) throws SQLException {
+		int size = 1;
+		while (size < documentIds.size()) {
+			size <<= 1;
+		}
+
+		StringJoiner placeholders = new StringJoiner(",");
+		for (int i = 0; i < size; i++) {
+			placeholders.add("?");
+		}
+
+		PreparedStatement statement = connection.prepareStatement(String.format(query, placeholders.toString()));
+		for (int i = 0; i < size; i++) {
+			statement.setLong(i + 1, documentIds.get(Math.min(i, documentIds.size() - 1)));
+		}
+		return statement;
 	}
 
 	/**
-	 * Creates a new connection using jpa properties if a cached connection isn't available
+	 * Borrows a connection from the shared pool for the configured database
 	 *
 	 * @return Connection
-	 * @throws SQLException - Unable to create connection
+	 * @throws SQLException - Unable to obtain a connection
 	 */
 	private Connection getConnection(SqlConfig config) throws SQLException {
 		Instant startTime = Instant.now();
-		LOGGER.debug("Acquiring SQL connection: {}@{}", config.getUsername(), config.getPassword());
-		Connection connection = DriverManager.getConnection(config.getUrl(), config.getUsername(), config.getPassword());
-		LOGGER.debug("Connected in {}", Duration.between(startTime, Instant.now()));
+		Connection connection = SqlDataSource.getInstance(config).getConnection();
+		LOGGER.debug("Acquired SQL connection in {}", Duration.between(startTime, Instant.now()));
 		return connection;
 	}
 
@@ -0,0 +1,11 @@
+package pqe.ecms.reindexer.workflow;
+
+import pqe.ecms.reindexer.exceptions.WorkflowException;
+
+/**
+ * A single step of the indexing workflow.  Each stage enriches the {@link IndexingDocument} handed to it and returns it for the next stage.
+ */
+@FunctionalInterface
+public interface WorkflowStage {
+	IndexingDocument apply(IndexingDocument document) throws WorkflowException;
+}
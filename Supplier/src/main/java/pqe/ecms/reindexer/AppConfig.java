@@ -2,9 +2,30 @@ package pqe.ecms.reindexer;
 
 public class AppConfig {
 
-	private int batchSize;
+	private int batchSize = 100;
+	private String batchPolicy = "count";
+	private int minBatchSize = 100;
+	private int maxMessageBytes = 256 * 1024;
+	private long targetPublishMillis = 500;
+	private long lingerMillis = 0;
 	private String queue;
+	private QueueMessageCodec.Format messageFormat = QueueMessageCodec.Format.JSON;
+	private int sourceCapacity = AbstractSource.DEFAULT_CAPACITY;
+	private String waitStrategy = "blocking";
+	private int maxInFlightRequests = 10;
+	private int maxSendAttempts = 5;
+	private int scanPartitions = 1;
+	private int scanPageSize = 10000;
+	private String checkpointDirectory = "checkpoints";
+	private long backlogHighWaterMark = 0;
+	private long backlogLowWaterMark = 0;
+	private int backlogPollSeconds = 30;
 
+	/**
+	 * The number of document ids per SQS message.
+	 *
+	 * @return
+	 */
 	public Integer getBatchSize() {
 		return batchSize;
 	}
@@ -13,6 +34,72 @@ public class AppConfig {
 		this.batchSize = batchSize;
 	}
 
+	/**
+	 * When a batch is closed, <b>count</b>, <b>bytes</b> or <b>adaptive</b>.  Whatever the policy a batch never holds more than the batch size.
+	 *
+	 * @return
+	 */
+	public String getBatchPolicy() {
+		return batchPolicy;
+	}
+
+	public void setBatchPolicy(String batchPolicy) {
+		this.batchPolicy = batchPolicy;
+	}
+
+	/**
+	 * The smallest number of document ids per message the adaptive policy goes down to.
+	 *
+	 * @return
+	 */
+	public int getMinBatchSize() {
+		return minBatchSize;
+	}
+
+	public void setMinBatchSize(int minBatchSize) {
+		this.minBatchSize = minBatchSize;
+	}
+
+	/**
+	 * The most characters of a message body for the bytes and adaptive policies.
+	 *
+	 * @return
+	 */
+	public int getMaxMessageBytes() {
+		return maxMessageBytes;
+	}
+
+	public void setMaxMessageBytes(int maxMessageBytes) {
+		this.maxMessageBytes = maxMessageBytes;
+	}
+
+	/**
+	 * How long SQS may take to accept a message before the adaptive policy makes the batches smaller.
+	 *
+	 * @return
+	 */
+	public long getTargetPublishMillis() {
+		return targetPublishMillis;
+	}
+
+	public void setTargetPublishMillis(long targetPublishMillis) {
+		this.targetPublishMillis = targetPublishMillis;
+	}
+
+	/**
+	 * The longest a document id waits in a partial batch before the batch is queued anyway, and a message in a partial SQS request before it is sent,
+	 * 0 to only queue full batches until the scan ends.
+	 *
+	 * @return
+	 */
+	public long getLingerMillis() {
+		return lingerMillis;
+	}
+
+	public void setLingerMillis(long lingerMillis) {
+		this.lingerMillis = lingerMillis;
+	}
+
 	public String getQueue() {
 		return queue;
 	}
@@ -20,4 +107,147 @@ public class AppConfig {
 	public void setQueue(String queue) {
 		this.queue = queue;
 	}
+
+	/**
+	 * How the document ids are encoded in the message body.  Consumers decode every format, the JSON format is also readable by older consumers.
+	 *
+	 * @return
+	 */
+	public QueueMessageCodec.Format getMessageFormat() {
+		return messageFormat;
+	}
+
+	public void setMessageFormat(QueueMessageCodec.Format messageFormat) {
+		this.messageFormat = messageFormat;
+	}
+
+	/**
+	 * The number of document ids buffered between the SQL cursor and the batching of SQS messages.
+	 *
+	 * @return
+	 */
+	public int getSourceCapacity() {
+		return sourceCapacity;
+	}
+
+	public void setSourceCapacity(int sourceCapacity) {
+		this.sourceCapacity = sourceCapacity;
+	}
+
+	/**
+	 * How the SQL cursor and the batching wait on each other, <b>blocking</b> or <b>parking</b>.
+	 *
+	 * @return
+	 */
+	public String getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	public void setWaitStrategy(String waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	/**
+	 * The number of SQS send requests of up to ten messages each that may be in flight at once.
+	 *
+	 * @return
+	 */
+	public int getMaxInFlightRequests() {
+		return maxInFlightRequests;
+	}
+
+	public void setMaxInFlightRequests(int maxInFlightRequests) {
+		this.maxInFlightRequests = maxInFlightRequests;
+	}
+
+	/**
+	 * How often a message is sent before it is given up on, when SQS keeps failing it.
+	 *
+	 * @return
+	 */
+	public int getMaxSendAttempts() {
+		return maxSendAttempts;
+	}
+
+	public void setMaxSendAttempts(int maxSendAttempts) {
+		this.maxSendAttempts = maxSendAttempts;
+	}
+
+	/**
+	 * The number of document key ranges read in parallel, each on its own connection of the pool.  1 reads the whole table through a single cursor.
+	 *
+	 * @return
+	 */
+	public int getScanPartitions() {
+		return scanPartitions;
+	}
+
+	public void setScanPartitions(int scanPartitions) {
+		this.scanPartitions = scanPartitions;
+	}
+
+	/**
+	 * The number of document ids read per query when the table is read in ranges.
+	 *
+	 * @return
+	 */
+	public int getScanPageSize() {
+		return scanPageSize;
+	}
+
+	public void setScanPageSize(int scanPageSize) {
+		this.scanPageSize = scanPageSize;
+	}
+
+	/**
+	 * Where the checkpoint of the scan is kept for the <b>resume</b> option, one file per instance.
+	 *
+	 * @return
+	 */
+	public String getCheckpointDirectory() {
+		return checkpointDirectory;
+	}
+
+	public void setCheckpointDirectory(String checkpointDirectory) {
+		this.checkpointDirectory = checkpointDirectory;
+	}
+
+	/**
+	 * The number of messages waiting and in flight in the indexing queue at which the scan is paused, 0 never pauses it.
+	 *
+	 * @return
+	 */
+	public long getBacklogHighWaterMark() {
+		return backlogHighWaterMark;
+	}
+
+	public void setBacklogHighWaterMark(long backlogHighWaterMark) {
+		this.backlogHighWaterMark = backlogHighWaterMark;
+	}
+
+	/**
+	 * The number of messages in the indexing queue at which a paused scan goes on.
+	 *
+	 * @return
+	 */
+	public long getBacklogLowWaterMark() {
+		return backlogLowWaterMark;
+	}
+
+	public void setBacklogLowWaterMark(long backlogLowWaterMark) {
+		this.backlogLowWaterMark = backlogLowWaterMark;
+	}
+
+	/**
+	 * How often the backlog of the indexing queue is read.
+	 *
+	 * @return
+	 */
+	public int getBacklogPollSeconds() {
+		return backlogPollSeconds;
+	}
+
+	public void setBacklogPollSeconds(int backlogPollSeconds) {
+		this.backlogPollSeconds = backlogPollSeconds;
+	}
 }
@@ -0,0 +1,160 @@
+package pqe.ecms.reindexer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pqe.ecms.aws.AWSFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queues the documents on the failure queue for indexing again, instead of scanning the database. <br/>
+ * The failure queue is drained ten messages at a time until a long poll comes back empty.  The documents of every receive are
+ * published in messages carrying their attempt count, so the consumer knows how often they have failed, and the failure messages are only deleted
+ * once SQS has accepted all of them.  Failure messages whose documents can't be queued stay on the failure queue to be received again,
+ * failure messages that can't be parsed are logged with their body and deleted.
+ */
+public class FailureReplayer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FailureReplayer.class);
+
+	private static final int MAX_MESSAGES = 10;
+	private static final int WAIT_TIME_SECONDS = 20;
+
+	private final String failureQueueUrl;
+	private final AmazonSQS sqsClient;
+	private final SqsPublisher publisher;
+	private final QueueMessageCodec.Format format;
+	private final int batchSize;
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final LongAdder messageCount = new LongAdder();
+	private final LongAdder documentCount = new LongAdder();
+	private final Map<String, LongAdder> documentsByStage = new ConcurrentHashMap<>();
+
+	/**
+	 * @param failureQueueUrl
+	 * @param publisher       Publishes to the indexing queue.
+	 * @param appConfig       The message format and the number of document ids per message.
+	 */
+	public FailureReplayer(String failureQueueUrl, SqsPublisher publisher, AppConfig appConfig) {
+		this.failureQueueUrl = failureQueueUrl;
+		this.sqsClient = AWSFactory.getSQSClient();
+		this.publisher = publisher;
+		this.format = appConfig.getMessageFormat();
+		this.batchSize = Math.max(1, appConfig.getBatchSize());
+	}
+
+	/**
+	 * Replays the failure queue until it is empty.
+	 */
+	public void run() {
+		LOGGER.info("Replaying failed documents from SQS queue {}", failureQueueUrl);
+		while (true) {
+			List<Message> messages = sqsClient.receiveMessage(new ReceiveMessageRequest(failureQueueUrl)
+					.withMaxNumberOfMessages(MAX_MESSAGES)
+					.withWaitTimeSeconds(WAIT_TIME_SECONDS)).getMessages();
+			if (messages.isEmpty()) {
+				break;
+			}
+			replay(messages);
+		}
+		LOGGER.info("Replayed the failure queue: {}", getStatistics());
+	}
+
+	/**
+	 * Summarizes the replay for status logging.
+	 *
+	 * @return
+	 */
+	public String getStatistics() {
+		Map<String, Long> byStage = new TreeMap<>();
+		documentsByStage.forEach((stage, count) -> byStage.put(stage, count.longValue()));
+		return String.format("failureMessages=%d, documentsReplayed=%d, failedStages=%s", messageCount.longValue(), documentCount.longValue(), byStage);
+	}
+
+	private void replay(List<Message> messages) {
+		// A document reported more than once is replayed once, with its highest attempt count.
+		Map<Long, Integer> attemptsById = new LinkedHashMap<>();
+		List<Message> replayed = new ArrayList<>(messages.size());
+		List<Message> unparseable = new ArrayList<>();
+		for (Message message : messages) {
+			try {
+				FailureMessage failureMessage = mapper.readValue(message.getBody(), FailureMessage.class);
+				for (FailureMessage.Failure failure : failureMessage.getFailures()) {
+					attemptsById.merge(failure.getDocumentId(), failure.getAttempts(), Math::max);
+					documentsByStage.computeIfAbsent(String.valueOf(failure.getStage()), stage -> new LongAdder()).increment();
+				}
+				replayed.add(message);
+			} catch (IOException e) {
+				// Never parseable, so left on the queue it would only be received again by every replay.
+				LOGGER.error("Exception parsing failure message {} from SQS queue {}, deleting it: {}", message.getMessageId(), failureQueueUrl, message.getBody(), e);
+				unparseable.add(message);
+			}
+		}
+		delete(unparseable);
+
+		Map<Integer, List<Long>> idsByAttempts = new TreeMap<>();
+		attemptsById.forEach((documentId, attempts) -> idsByAttempts.computeIfAbsent(attempts, key -> new ArrayList<>()).add(documentId));
+
+		List<CompletableFuture<Long>> published = new ArrayList<>();
+		idsByAttempts.forEach((attempts, documentIds) -> {
+			long[] batch = new long[Math.min(batchSize, documentIds.size())];
+			for (int from = 0; from < documentIds.size(); from += batchSize) {
+				int length = Math.min(batchSize, documentIds.size() - from);
+				for (int i = 0; i < length; i++) {
+					batch[i] = documentIds.get(from + i);
+				}
+				published.add(publisher.publish(QueueMessageCodec.encode(batch, length, format, attempts)));
+			}
+		});
+		publisher.flush();
+
+		try {
+			CompletableFuture.allOf(published.toArray(new CompletableFuture[0])).join();
+		} catch (CompletionException e) {
+			LOGGER.error("Failed to queue the documents of {} failure messages, leaving them on SQS queue {}", replayed.size(), failureQueueUrl, e.getCause());
+			return;
+		}
+
+		messageCount.add(replayed.size());
+		documentCount.add(attemptsById.size());
+		delete(replayed);
+	}
+
+	private void delete(List<Message> messages) {
+		if (messages.isEmpty()) {
+			return;
+		}
+		List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(messages.size());
+		for (int i = 0; i < messages.size(); i++) {
+			entries.add(new DeleteMessageBatchRequestEntry(String.valueOf(i), messages.get(i).getReceiptHandle()));
+		}
+
+		try {
+			List<BatchResultErrorEntry> failed = sqsClient.deleteMessageBatch(new DeleteMessageBatchRequest(failureQueueUrl, entries)).getFailed();
+			for (BatchResultErrorEntry error : failed) {
+				LOGGER.error("Failed to delete failure message {}, its documents will be replayed again: {} {}",
+						messages.get(Integer.parseInt(error.getId())).getMessageId(), error.getCode(), error.getMessage());
+			}
+		} catch (AmazonClientException e) {
+			LOGGER.error("Exception deleting {} messages from SQS queue {}, their documents will be replayed again", messages.size(), failureQueueUrl, e);
+		}
+	}
+}
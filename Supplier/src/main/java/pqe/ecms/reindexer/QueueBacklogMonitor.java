@@ -0,0 +1,119 @@
+package pqe.ecms.reindexer;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pqe.ecms.aws.AWSFactory;
+import pqe.ecms.reindexer.sql.Throttle;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the backlog of the indexing queue and throttles the scan while the consumers are behind. <br/>
+ * The backlog is the messages waiting plus the messages being processed.  Once it reaches the high-water mark the readers are paused until
+ * it has drained to the low-water mark, so the queue stays shallow instead of filling with messages that age and are retried.
+ * When the backlog can't be read the last state is kept.
+ */
+public class QueueBacklogMonitor implements Throttle {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(QueueBacklogMonitor.class);
+
+	private final String queueUrl;
+	private final AmazonSQS sqsClient;
+	private final long highWaterMark;
+	private final long lowWaterMark;
+	private final ScheduledExecutorService pollService;
+
+	private volatile boolean paused;
+	private volatile long backlog = -1;
+	private long pausedSince;
+	private long pausedNanos;
+	private int pauseCount;
+
+	/**
+	 * @param queueUrl
+	 * @param config   The water marks and how often the backlog is polled.
+	 */
+	public QueueBacklogMonitor(String queueUrl, AppConfig config) {
+		this.queueUrl = queueUrl;
+		this.sqsClient = AWSFactory.getSQSClient();
+		this.highWaterMark = config.getBacklogHighWaterMark();
+		this.lowWaterMark = Math.min(config.getBacklogLowWaterMark(), highWaterMark);
+		this.pollService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("sqs-backlog-%d").setDaemon(true).build());
+		pollService.scheduleWithFixedDelay(this::poll, 0, config.getBacklogPollSeconds(), TimeUnit.SECONDS);
+		LOGGER.info("Pausing the scan at {} messages in {} until it is down to {}", highWaterMark, queueUrl, lowWaterMark);
+	}
+
+	@Override
+	public void await() throws InterruptedException {
+		if (!paused) {
+			return;
+		}
+		synchronized (this) {
+			while (paused) {
+				wait();
+			}
+		}
+	}
+
+	/**
+	 * Summarizes the backlog for status logging.
+	 *
+	 * @return
+	 */
+	public synchronized String getStatistics() {
+		long pausedTotal = pausedNanos + (paused ? System.nanoTime() - pausedSince : 0);
+		return String.format("sqsBacklog=%d, paused=%s, pauses=%d, pausedSec=%d", backlog, paused, pauseCount, TimeUnit.NANOSECONDS.toSeconds(pausedTotal));
+	}
+
+	/**
+	 * Stops polling and lets any paused reader go on.
+	 */
+	public synchronized void close() {
+		pollService.shutdownNow();
+		setPaused(false);
+	}
+
+	private void poll() {
+		try {
+			Map<String, String> attributes = sqsClient.getQueueAttributes(new GetQueueAttributesRequest(queueUrl)
+					.withAttributeNames(QueueAttributeName.ApproximateNumberOfMessages, QueueAttributeName.ApproximateNumberOfMessagesNotVisible))
+					.getAttributes();
+			long current = Long.parseLong(attributes.getOrDefault(QueueAttributeName.ApproximateNumberOfMessages.toString(), "0"))
+					+ Long.parseLong(attributes.getOrDefault(QueueAttributeName.ApproximateNumberOfMessagesNotVisible.toString(), "0"));
+			backlog = current;
+
+			synchronized (this) {
+				if (!paused && current >= highWaterMark) {
+					LOGGER.info("Pausing the scan, {} messages in the queue", current);
+					setPaused(true);
+				} else if (paused && current <= lowWaterMark) {
+					LOGGER.info("Resuming the scan, {} messages in the queue", current);
+					setPaused(false);
+				}
+			}
+		} catch (RuntimeException e) {
+			LOGGER.warn("Exception reading the backlog of {}, the scan stays {}", queueUrl, paused ? "paused" : "running", e);
+		}
+	}
+
+	private void setPaused(boolean pause) {
+		if (pause == paused) {
+			return;
+		}
+		if (pause) {
+			pausedSince = System.nanoTime();
+			pauseCount++;
+		} else {
+			pausedNanos += System.nanoTime() - pausedSince;
+		}
+		paused = pause;
+		notifyAll();
+	}
+}
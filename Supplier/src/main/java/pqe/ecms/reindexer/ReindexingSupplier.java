@@ -7,17 +7,27 @@ import com.proquest.editorial.commons.properties.PropertyResources;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pqe.ecms.ConfigProvider;
+import pqe.ecms.ConfigResolver;
 import pqe.ecms.metrics.Gatherer;
+import pqe.ecms.reindexer.sql.CheckpointStore;
+import pqe.ecms.reindexer.sql.CheckpointTracker;
+import pqe.ecms.reindexer.sql.ScanCheckpoint;
 import pqe.ecms.reindexer.sql.SqlSource;
+import pqe.ecms.reindexer.sql.Throttle;
 
+import java.nio.file.Paths;
+import java.sql.Timestamp;
 import java.util.Properties;
-import java.util.concurrent.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ReindexingSupplier {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ReindexingSupplier.class);
 
 	private static final String CONFIG = "command_line";
+	private static final String APP_CONFIG = "/reindexing.json";
 
 	public static void main(String[] args) {
 		try {
@@ -40,32 +50,176 @@ public class ReindexingSupplier {
 		System.setProperty("ecms.environment", commandLine.getString("instance"));
 
 		ConfigProvider jarProvider = ConfigProviderFactory.getProvider("jar");
+		AppConfig appConfig = ConfigResolver.loadConfig(AppConfig.class, APP_CONFIG, jarProvider);
+		String queueUrl = "https://sqs.us-east-1.amazonaws.com/365859773477/ecms-" + System.getProperty("ecms.environment") + "-indexing";
+
+		if (commandLine.keyExists("replay")) {
+			replayFailures(queueUrl, appConfig);
+			return;
+		}
 
 		Properties sqlProperties = PropertyResources.readPropertiesFromJar("/" + System.getProperty("ecms.environment") + "/sql.properties", ReindexingSupplier.class);
 		SqlConfig sqlConfig = new SqlConfig(sqlProperties);
 
-		AbstractSource<Long> source = new SqlSource(sqlConfig);
-		SqsPublisher sqsPublisher = new SqsPublisher("https://sqs.us-east-1.amazonaws.com/365859773477/ecms-" + System.getProperty("ecms.environment") + "-indexing");
-
-		ThreadFactory threadFactory = new ThreadFactoryBuilder().build();
-		BlockingQueue<Runnable> sqsQueue = new ArrayBlockingQueue<>(100);
-		ExecutorService sqsService = new ThreadPoolExecutor(1, 10, 0L, TimeUnit.MILLISECONDS, sqsQueue, threadFactory,
-				(r, executor) -> {
-					if (!executor.isShutdown()) {
-						try {
-							executor.getQueue().put(r);
-						} catch (InterruptedException e) {
-							;
+		CheckpointStore checkpointStore = getCheckpointStore(appConfig, false);
+		CheckpointStore deltaCheckpointStore = getCheckpointStore(appConfig, true);
+		ScanCheckpoint checkpoint = commandLine.keyExists("delta")
+				? loadDeltaCheckpoint(commandLine.keyExists("resume"), deltaCheckpointStore, checkpointStore, sqlConfig)
+				: loadCheckpoint(commandLine.keyExists("resume"), checkpointStore, sqlConfig, appConfig);
+		if (checkpoint.getChangedSince() != null) {
+			checkpointStore = deltaCheckpointStore;
+		}
+		CheckpointTracker checkpointTracker = new CheckpointTracker(checkpoint, checkpointStore);
+
+		QueueBacklogMonitor backlogMonitor = appConfig.getBacklogHighWaterMark() > 0 ? new QueueBacklogMonitor(queueUrl, appConfig) : null;
+
+		SqlSource source = new SqlSource(sqlConfig, checkpoint, appConfig.getScanPageSize(), appConfig.getSourceCapacity(),
+				() -> WaitStrategy.create(appConfig.getWaitStrategy()), appConfig.getLingerMillis(), backlogMonitor != null ? backlogMonitor : Throttle.NONE);
+		SqsPublisher sqsPublisher = new SqsPublisher(queueUrl, appConfig);
+
+		// The batch array is reused, so it is encoded before it is published.
+		QueueMessageCodec.Format messageFormat = appConfig.getMessageFormat();
+		BatchSizePolicy batchSizePolicy = createBatchSizePolicy(appConfig);
+		LOGGER.info("Queuing document ids in the {} format with the batch size policy {}, lingering {} ms", messageFormat, batchSizePolicy, appConfig.getLingerMillis());
+		LongQueueBatching queueBatching = new LongQueueBatching(batchSizePolicy, appConfig.getLingerMillis(), (batch, length) -> {
+			CheckpointTracker.Batch checkpointBatch = checkpointTracker.register(batch, length);
+			// Timed from the dispatch of the SQS request, the wait for the rest of the request says nothing about how SQS keeps up.
+			sqsPublisher.publish(QueueMessageCodec.encode(batch, length, messageFormat))
+					.whenComplete((sendNanos, failure) -> {
+						if (failure == null) {
+							batchSizePolicy.onPublished(length, sendNanos);
 						}
-					}
-				});
+						checkpointTracker.settle(checkpointBatch, failure == null);
+					});
+		});
+
+		ScheduledExecutorService statusService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("status-%d").setDaemon(true).build());
+		statusService.scheduleAtFixedRate(() -> LOGGER.info("Status: {}, {}{}", queueBatching.getStatistics(), sqsPublisher.getStatistics(),
+				backlogMonitor != null ? ", " + backlogMonitor.getStatistics() : ""), 15, 15, TimeUnit.SECONDS);
+
+		queueBatching.indexContent(source.longStream());
+		sqsPublisher.close();
+		statusService.shutdown();
+		if (backlogMonitor != null) {
+			LOGGER.info("SQS backlog: {}", backlogMonitor.getStatistics());
+			backlogMonitor.close();
+		}
+		checkpointTracker.finish(!source.hasFailed());
+
+		LOGGER.info("Queued {} document ids in {} batches: {}", queueBatching.getItemsCount(), queueBatching.getBatchCount(), queueBatching.getStatistics());
+		LOGGER.info("SQS publishing: {}", sqsPublisher.getStatistics());
+		LOGGER.info("SQL connection pool: {}", SqlDataSource.getInstance(sqlConfig).getStatistics());
+		SqlDataSource.getInstance(sqlConfig).close();
+	}
+
+	/**
+	 * Queues the documents of the failure queue, <b>ecms-&lt;instance&gt;-indexing-failures</b>, without scanning the database or touching the checkpoints.
+	 *
+	 * @param queueUrl
+	 * @param appConfig
+	 * @throws InterruptedException
+	 */
+	private void replayFailures(String queueUrl, AppConfig appConfig) throws InterruptedException {
+		SqsPublisher sqsPublisher = new SqsPublisher(queueUrl, appConfig);
+		FailureReplayer replayer = new FailureReplayer(queueUrl + "-failures", sqsPublisher, appConfig);
+
+		ScheduledExecutorService statusService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("status-%d").setDaemon(true).build());
+		statusService.scheduleAtFixedRate(() -> LOGGER.info("Status: {}, {}", replayer.getStatistics(), sqsPublisher.getStatistics()), 15, 15, TimeUnit.SECONDS);
+
+		replayer.run();
+		sqsPublisher.close();
+		statusService.shutdown();
+		LOGGER.info("SQS publishing: {}", sqsPublisher.getStatistics());
+	}
+
+	/**
+	 * Creates the configured policy: <b>count</b> closes every batch at the batch size, <b>bytes</b> also before the message outgrows the byte budget
+	 * and <b>adaptive</b> moves the size between the minimum and the batch size by how quickly SQS accepts the messages, within the byte budget.
+	 *
+	 * @param appConfig
+	 * @return
+	 */
+	private BatchSizePolicy createBatchSizePolicy(AppConfig appConfig) {
+		switch (appConfig.getBatchPolicy()) {
+			case "count":
+				return new CountBatchSizePolicy(appConfig.getBatchSize());
+			case "bytes":
+				return new ByteBatchSizePolicy(appConfig.getBatchSize(), appConfig.getMaxMessageBytes(), appConfig.getMessageFormat());
+			case "adaptive":
+				return new AdaptiveBatchSizePolicy(appConfig.getMinBatchSize(), appConfig.getBatchSize(), TimeUnit.MILLISECONDS.toNanos(appConfig.getTargetPublishMillis()),
+						new ByteBatchSizePolicy(appConfig.getBatchSize(), appConfig.getMaxMessageBytes(), appConfig.getMessageFormat()));
+			default:
+				throw new IllegalArgumentException("Unknown batch policy " + appConfig.getBatchPolicy());
+		}
+	}
 
-		QueueBatching<Long> queueBatching = new QueueBatching<>(100, batch -> sqsService.submit(() -> sqsPublisher.accept(batch)));
+	/**
+	 * @param appConfig
+	 * @param delta Whether the store is for delta scans, which are checkpointed apart from the full scans.
+	 * @return
+	 */
+	private CheckpointStore getCheckpointStore(AppConfig appConfig, boolean delta) {
+		String name = "supplier-" + System.getProperty("ecms.environment") + (delta ? "-delta" : "") + ".json";
+		return new CheckpointStore(Paths.get(appConfig.getCheckpointDirectory(), name));
+	}
 
-		queueBatching.indexContent(source.stream());
-		ExecutorUtil.shutdownExecutorService(sqsService);
+	/**
+	 * Resumes an incomplete delta scan, or plans one from the high-water mark of the last completed scan.
+	 * The mark of a completed delta scan takes precedence over the mark of a completed full scan, a delta scan that did not complete keeps its own mark.
+	 *
+	 * @param resume
+	 * @param deltaCheckpointStore
+	 * @param checkpointStore
+	 * @param sqlConfig
+	 * @return
+	 * @throws Exception When there is no high-water mark, as no scan has completed yet.
+	 */
+	private ScanCheckpoint loadDeltaCheckpoint(boolean resume, CheckpointStore deltaCheckpointStore, CheckpointStore checkpointStore, SqlConfig sqlConfig) throws Exception {
+		ScanCheckpoint previous = deltaCheckpointStore.load();
+		if (previous != null && !previous.isCompleted() && resume) {
+			sqlConfig.setDirection(previous.getDirection());
+			return previous;
+		}
 
-		LOGGER.info("Queued {} document ids in {} batches", queueBatching.getItemsCount(), queueBatching.getBatchCount());
+		Timestamp changedSince = null;
+		if (previous != null) {
+			changedSince = previous.isCompleted() ? previous.getStartedAt() : previous.getChangedSince();
+		} else {
+			ScanCheckpoint full = checkpointStore.load();
+			if (full != null && full.isCompleted()) {
+				changedSince = full.getStartedAt();
+			}
+		}
+		if (changedSince == null) {
+			throw new IllegalStateException("There is no high-water mark for a delta scan in " + deltaCheckpointStore.getFile() + " or " + checkpointStore.getFile()
+					+ ", complete a full scan first");
+		}
+		return ScanCheckpoint.delta(sqlConfig, changedSince);
+	}
+
+	/**
+	 * Resumes from the saved checkpoint in the direction it was scanned in, or plans a new scan when there is nothing to resume
+	 * or the saved scan has completed.
+	 *
+	 * @param resume
+	 * @param checkpointStore
+	 * @param sqlConfig
+	 * @param appConfig
+	 * @return
+	 * @throws Exception
+	 */
+	private ScanCheckpoint loadCheckpoint(boolean resume, CheckpointStore checkpointStore, SqlConfig sqlConfig, AppConfig appConfig) throws Exception {
+		if (resume) {
+			ScanCheckpoint checkpoint = checkpointStore.load();
+			if (checkpoint != null && !checkpoint.isCompleted()) {
+				sqlConfig.setDirection(checkpoint.getDirection());
+				return checkpoint;
+			}
+			LOGGER.warn(checkpoint == null
+					? "There is no checkpoint in {} to resume from, starting a new scan"
+					: "The checkpoint in {} is of a completed scan, starting a new scan", checkpointStore.getFile());
+		}
+		return ScanCheckpoint.plan(sqlConfig, appConfig.getScanPartitions());
 	}
 
 }
@@ -1,50 +1,310 @@
 package pqe.ecms.reindexer;
 
-import com.amazonaws.AmazonClientException;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.SendMessageRequest;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pqe.ecms.aws.AWSFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
+/**
+ * Publishes message bodies to the indexing queue in batches of up to ten messages, sent with the asynchronous SQS client. <br/>
+ * At most {@link AppConfig#getMaxInFlightRequests()} requests are in flight, after which {@link #publish(String)} blocks, pushing back on the batching.
+ * Entries that fail on the service side are retried on their own with a growing delay, up to {@link AppConfig#getMaxSendAttempts()} attempts.
+ * With a {@link AppConfig#getLingerMillis()} a timer also sends the partial batch once its first message has waited that long, so a trickling
+ * stream reaches SQS without waiting for ten messages or the end of the scan.
+ */
 public class SqsPublisher implements Consumer<List<Long>> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(SqsPublisher.class);
 
+	private static final int MAX_BATCH_ENTRIES = 10;
+	private static final int MAX_BATCH_BYTES = 256 * 1024;
+	private static final long RETRY_DELAY_MILLIS = 200L;
+
 	private String queueUrl;
-	private AmazonSQS sqsClient;
+	private AmazonSQSAsync sqsClient;
+	private int maxInFlightRequests;
+	private int maxSendAttempts;
+
+	private final Semaphore inFlight;
+	private final ScheduledExecutorService retryService;
+	private final ScheduledExecutorService lingerService;
+	private final long lingerNanos;
+	private final List<PendingMessage> pending = new ArrayList<>(MAX_BATCH_ENTRIES);
+	private int pendingBytes;
+	private long pendingSinceNanos;
+	private long outstanding;
 
-	private ObjectMapper objectMapper = new ObjectMapper();
+	private final LatencyHistogram sendLatency = new LatencyHistogram();
+	private final LongAdder sentCount = new LongAdder();
+	private final LongAdder retriedCount = new LongAdder();
+	private final LongAdder failedCount = new LongAdder();
+	private final LongAdder lingerCount = new LongAdder();
+	private final long startNanos = System.nanoTime();
+
+	public SqsPublisher(String queueUrl, AppConfig config) {
+		this(queueUrl, config, AWSFactory.getSQSAsyncClient());
+	}
 
-	public SqsPublisher(String queueUrl) {
+	SqsPublisher(String queueUrl, AppConfig config, AmazonSQSAsync sqsClient) {
 		this.queueUrl = queueUrl;
-		this.sqsClient = AWSFactory.getSQSClient();
+		this.sqsClient = sqsClient;
+		this.maxInFlightRequests = config.getMaxInFlightRequests();
+		this.maxSendAttempts = config.getMaxSendAttempts();
+		this.inFlight = new Semaphore(maxInFlightRequests);
+		this.retryService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("sqs-retry-%d").setDaemon(true).build());
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(config.getLingerMillis());
+		if (lingerNanos > 0) {
+			this.lingerService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("sqs-linger-%d").setDaemon(true).build());
+			long period = Math.max(TimeUnit.MILLISECONDS.toNanos(1), lingerNanos / 4);
+			lingerService.scheduleWithFixedDelay(this::linger, period, period, TimeUnit.NANOSECONDS);
+		} else {
+			this.lingerService = null;
+		}
 	}
 
 	@Override
 	public void accept(List<Long> documentIdList) {
+		LOGGER.trace("Queuing list of {} document ids", documentIdList.size());
+		publish(QueueMessageCodec.encode(new QueueMessage(documentIdList)));
+	}
+
+	/**
+	 * Adds a message body encoded with {@link QueueMessageCodec} to the next batch, sending the batch once it is full.
+	 *
+	 * @param messageText
+	 * @return Completes once SQS has accepted the message with the nanoseconds the accepting request took from its dispatch, leaving out the time
+	 * the message waited for the rest of its batch and for a request slot, or exceptionally once every attempt has failed.
+	 */
+	public CompletableFuture<Long> publish(String messageText) {
+		PendingMessage message = new PendingMessage(messageText);
+		synchronized (this) {
+			outstanding++;
+		}
+		enqueue(message);
+		return message.future;
+	}
+
+	/**
+	 * Sends the messages collected so far without waiting for a full batch.
+	 */
+	public void flush() {
+		List<PendingMessage> batch;
+		synchronized (this) {
+			batch = drain();
+		}
+		if (!batch.isEmpty()) {
+			send(batch);
+		}
+	}
+
+	/**
+	 * Flushes and waits until every message published has been accepted or has failed for good, then releases the retry and linger threads.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void close() throws InterruptedException {
+		if (lingerService != null) {
+			lingerService.shutdown();
+		}
+		flush();
+		synchronized (this) {
+			while (outstanding > 0) {
+				wait();
+			}
+		}
+		retryService.shutdown();
+	}
+
+	/**
+	 * Summarizes the sends for status logging.
+	 *
+	 * @return
+	 */
+	public String getStatistics() {
+		double seconds = (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+		return String.format("sqsSent=%d, sqsRetried=%d, sqsFailed=%d, sqsLingered=%d, sqsMsgPerSec=%.1f, sqsInFlight=%d, sqsSend[%s]",
+				sentCount.longValue(), retriedCount.longValue(), failedCount.longValue(), lingerCount.longValue(), seconds > 0 ? sentCount.longValue() / seconds : 0.0,
+				maxInFlightRequests - inFlight.availablePermits(), sendLatency);
+	}
+
+	/**
+	 * @return The number of partial batches sent because their first message had lingered too long.
+	 */
+	public long getLingerCount() {
+		return lingerCount.longValue();
+	}
+
+	/**
+	 * Adds a message to the pending batch, sending the batches it completes.  The sends happen outside the lock,
+	 * as waiting for a request slot while holding it would block the callbacks that free the slots.
+	 *
+	 * @param message
+	 */
+	private void enqueue(PendingMessage message) {
+		List<PendingMessage> overflow = null;
+		List<PendingMessage> full = null;
+		int bytes = message.body.length();
+		synchronized (this) {
+			if (!pending.isEmpty() && pendingBytes + bytes > MAX_BATCH_BYTES) {
+				overflow = drain();
+			}
+			if (pending.isEmpty()) {
+				pendingSinceNanos = System.nanoTime();
+			}
+			pending.add(message);
+			pendingBytes += bytes;
+			if (pending.size() == MAX_BATCH_ENTRIES) {
+				full = drain();
+			}
+		}
+		if (overflow != null) {
+			send(overflow);
+		}
+		if (full != null) {
+			send(full);
+		}
+	}
+
+	/**
+	 * Sends the partial batch once its first message has waited the linger time, run by the linger timer.
+	 */
+	private void linger() {
+		List<PendingMessage> batch = null;
+		synchronized (this) {
+			if (!pending.isEmpty() && System.nanoTime() - pendingSinceNanos >= lingerNanos) {
+				batch = drain();
+			}
+		}
+		if (batch != null) {
+			lingerCount.increment();
+			send(batch);
+		}
+	}
+
+	private List<PendingMessage> drain() {
+		List<PendingMessage> batch = new ArrayList<>(pending);
+		pending.clear();
+		pendingBytes = 0;
+		return batch;
+	}
+
+	/**
+	 * Sends one batch once a request slot is free.  The entry ids are the indexes into the batch.
+	 *
+	 * @param batch
+	 */
+	private void send(List<PendingMessage> batch) {
+		List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			batch.get(i).attempts++;
+			entries.add(new SendMessageBatchRequestEntry(String.valueOf(i), batch.get(i).body).withDelaySeconds(0));
+		}
+
+		inFlight.acquireUninterruptibly();
+		long startTime = System.nanoTime();
 		try {
-			LOGGER.trace("Queuing list of {} document ids", documentIdList.size());
+			sqsClient.sendMessageBatchAsync(new SendMessageBatchRequest(queueUrl, entries), new AsyncHandler<SendMessageBatchRequest, SendMessageBatchResult>() {
+				@Override
+				public void onError(Exception e) {
+					inFlight.release();
+					sendLatency.recordSince(startTime);
+					LOGGER.warn("Exception sending {} messages to SQS queue {}", batch.size(), queueUrl, e);
+					batch.forEach(message -> retry(message, e.getMessage()));
+				}
+
+				@Override
+				public void onSuccess(SendMessageBatchRequest request, SendMessageBatchResult result) {
+					inFlight.release();
+					long nanos = System.nanoTime() - startTime;
+					sendLatency.record(nanos);
+					for (SendMessageBatchResultEntry entry : result.getSuccessful()) {
+						sentCount.increment();
+						complete(batch.get(Integer.parseInt(entry.getId())), nanos, null);
+					}
+					for (BatchResultErrorEntry error : result.getFailed()) {
+						PendingMessage message = batch.get(Integer.parseInt(error.getId()));
+						if (Boolean.TRUE.equals(error.getSenderFault())) {
+							fail(message, error.getCode() + " " + error.getMessage());
+						} else {
+							retry(message, error.getCode() + " " + error.getMessage());
+						}
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			inFlight.release();
+			LOGGER.warn("Exception submitting {} messages to SQS queue {}", batch.size(), queueUrl, e);
+			batch.forEach(message -> retry(message, e.getMessage()));
+		}
+	}
+
+	private void retry(PendingMessage message, String reason) {
+		if (message.attempts >= maxSendAttempts) {
+			fail(message, reason);
+			return;
+		}
 
-			String messageText = objectMapper.writeValueAsString(new QueueMessage(documentIdList));
+		retriedCount.increment();
+		long delay = RETRY_DELAY_MILLIS << Math.min(message.attempts - 1, 6);
+		LOGGER.debug("Retrying SQS message in {} ms after attempt {}: {}", delay, message.attempts, reason);
+		retryService.schedule(() -> {
+			enqueue(message);
+			flush();
+		}, delay, TimeUnit.MILLISECONDS);
+	}
 
-			SendMessageRequest send_msg_request = new SendMessageRequest()
-					.withQueueUrl(queueUrl)
-					.withMessageBody(messageText)
-					.withDelaySeconds(0);
-			sqsClient.sendMessage(send_msg_request);
+	private void fail(PendingMessage message, String reason) {
+		failedCount.increment();
+		LOGGER.error("Failed to queue {} document ids after {} attempts: {}", countIds(message.body), message.attempts, reason);
+		complete(message, 0, new IOException("Failed to queue message: " + reason));
+	}
 
-		} catch (JsonProcessingException e) {
-			LOGGER.error("Exception creating message for queue", e);
+	private void complete(PendingMessage message, long nanos, Throwable failure) {
+		if (failure == null) {
+			message.future.complete(nanos);
+		} else {
+			message.future.completeExceptionally(failure);
+		}
+		synchronized (this) {
+			if (--outstanding == 0) {
+				notifyAll();
+			}
+		}
+	}
 
-		} catch (AmazonClientException e) {
-			LOGGER.error("Exception queuing message", e);
+	private static int countIds(String body) {
+		try {
+			return QueueMessageCodec.decode(body).getDocumentIds().length;
+		} catch (IOException e) {
+			return -1;
 		}
 	}
 
+	private static class PendingMessage {
+		private final String body;
+		private final CompletableFuture<Long> future = new CompletableFuture<>();
+		private int attempts;
+
+		private PendingMessage(String body) {
+			this.body = body;
+		}
+	}
 }
@@ -0,0 +1,51 @@
+package pqe.ecms.reindexer.sql;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps a {@link ScanCheckpoint} in a local JSON file. <br/>
+ * Every save writes a temporary file next to the checkpoint and moves it into place, so a crash leaves either the previous or the new checkpoint.
+ */
+public class CheckpointStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CheckpointStore.class);
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final Path file;
+	private final Path temporaryFile;
+
+	public CheckpointStore(Path file) {
+		this.file = file.toAbsolutePath();
+		this.temporaryFile = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+	}
+
+	/**
+	 * @return The checkpoint saved last, or null when there is none.
+	 * @throws IOException
+	 */
+	public ScanCheckpoint load() throws IOException {
+		if (!Files.exists(file)) {
+			return null;
+		}
+		ScanCheckpoint checkpoint = mapper.readValue(file.toFile(), ScanCheckpoint.class);
+		LOGGER.info("Loaded checkpoint of {} ranges from {}", checkpoint.getRanges().size(), file);
+		return checkpoint;
+	}
+
+	public void save(ScanCheckpoint checkpoint) throws IOException {
+		Files.createDirectories(file.getParent());
+		mapper.writeValue(temporaryFile.toFile(), checkpoint);
+		Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public Path getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,248 @@
+package pqe.ecms.reindexer.sql;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Advances a {@link ScanCheckpoint} as the messages built from the scan are confirmed by SQS. <br/>
+ * Messages are confirmed out of order, so a message only moves the checkpoint once every message published before it has been confirmed too.
+ * Within a range the keys arrive in scan order, so the last key a message holds of each range is all the checkpoint needs.
+ * A message that fails for good holds the checkpoint back, a resumed run publishes its keys again.  The messages published after it can't move the
+ * checkpoint any more, so they are no longer tracked. <br/>
+ * Settling only moves the checkpoint in memory, on the threads SQS answers on.  A single writer saves it when it has moved, at most every
+ * {@link #DEFAULT_SAVE_INTERVAL_MILLIS} ms by default, and {@link #finish(boolean)} saves it a last time.
+ */
+public class CheckpointTracker {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CheckpointTracker.class);
+
+	public static final long DEFAULT_SAVE_INTERVAL_MILLIS = 1000;
+
+	private final ScanCheckpoint checkpoint;
+	private final CheckpointStore store;
+	private final List<KeyRange> ranges;
+	private final long[] lowerBounds;
+	private final ScheduledExecutorService writer;
+
+	private final Deque<Batch> pending = new ArrayDeque<>();
+	private long sequence;
+	private long failedCount;
+	private boolean stalled;
+	private boolean dirty;
+
+	public CheckpointTracker(ScanCheckpoint checkpoint, CheckpointStore store) {
+		this(checkpoint, store, DEFAULT_SAVE_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * @param checkpoint
+	 * @param store
+	 * @param saveIntervalMillis How often the checkpoint is saved while it moves.
+	 */
+	public CheckpointTracker(ScanCheckpoint checkpoint, CheckpointStore store, long saveIntervalMillis) {
+		this.checkpoint = checkpoint;
+		this.store = store;
+		this.ranges = checkpoint.getRanges();
+		this.lowerBounds = new long[ranges.size()];
+		for (int i = 0; i < lowerBounds.length; i++) {
+			lowerBounds[i] = ranges.get(i).getLower();
+		}
+		this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("checkpoint-writer-%d").setDaemon(true).build());
+		writer.scheduleWithFixedDelay(this::saveMoved, saveIntervalMillis, saveIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Records the keys of a message about to be published.  Messages have to be registered in the order they are published.
+	 *
+	 * @param keys
+	 * @param length
+	 * @return The handle to settle once SQS has answered.
+	 */
+	public synchronized Batch register(long[] keys, int length) {
+		Long[] lastKeys = new Long[ranges.size()];
+		for (int i = 0; i < length; i++) {
+			int range = rangeOf(keys[i]);
+			if (range >= 0) {
+				lastKeys[range] = keys[i];
+			}
+		}
+		Batch batch = new Batch(sequence++, lastKeys);
+		if (!stalled) {
+			pending.addLast(batch);
+		}
+		return batch;
+	}
+
+	/**
+	 * Settles a message, moving the checkpoint past every message confirmed in order.
+	 *
+	 * @param batch
+	 * @param published Whether SQS accepted the message.
+	 */
+	public synchronized void settle(Batch batch, boolean published) {
+		if (!published) {
+			failedCount++;
+			stall(batch);
+			return;
+		}
+
+		batch.confirmed = true;
+		boolean advanced = false;
+		while (!pending.isEmpty() && pending.peekFirst().confirmed) {
+			Long[] lastKeys = pending.pollFirst().lastKeys;
+			for (int i = 0; i < lastKeys.length; i++) {
+				if (lastKeys[i] != null) {
+					ranges.get(i).setLastKey(lastKeys[i]);
+				}
+			}
+			advanced = true;
+		}
+		dirty |= advanced;
+	}
+
+	/**
+	 * Saves the final checkpoint, marked completed when every key was read and every message has been confirmed.
+	 *
+	 * @param scanned Whether every range was read to its end.
+	 * @return Whether the scan is complete.
+	 */
+	public boolean finish(boolean scanned) {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		ScanCheckpoint saved;
+		synchronized (this) {
+			checkpoint.setCompleted(scanned && pending.isEmpty() && failedCount == 0);
+			saved = copy();
+			dirty = false;
+		}
+		save(saved);
+		if (saved.isCompleted()) {
+			LOGGER.info("Scan completed, checkpoint saved to {}", store.getFile());
+		} else {
+			LOGGER.warn("Scan incomplete with {} failed and {} unconfirmed messages{}, resume from the checkpoint in {}",
+					failedCount, getPendingCount(), scanned ? "" : " and unread ranges", store.getFile());
+		}
+		return saved.isCompleted();
+	}
+
+	/**
+	 * @return The number of messages that have failed for good.
+	 */
+	public synchronized long getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * @return The number of messages tracked that haven't been confirmed yet.
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * @return The checkpoint as it would be saved now.
+	 */
+	public synchronized ScanCheckpoint getCheckpoint() {
+		return copy();
+	}
+
+	/**
+	 * Stops tracking the failed message and every message published after it, which can't move the checkpoint past it anyway.
+	 * The messages published before it still move the checkpoint up to it.
+	 *
+	 * @param failed
+	 */
+	private void stall(Batch failed) {
+		int dropped = 0;
+		while (!pending.isEmpty() && pending.peekLast().sequence >= failed.sequence) {
+			if (pending.pollLast() != failed) {
+				dropped++;
+			}
+		}
+		if (!stalled) {
+			LOGGER.warn("A message failed for good, the checkpoint stops before it and the {} messages published after it are no longer tracked", dropped);
+		}
+		stalled = true;
+	}
+
+	private void saveMoved() {
+		ScanCheckpoint moved;
+		synchronized (this) {
+			if (!dirty) {
+				return;
+			}
+			moved = copy();
+			dirty = false;
+		}
+		save(moved);
+	}
+
+	private ScanCheckpoint copy() {
+		List<KeyRange> copies = new ArrayList<>(ranges.size());
+		for (KeyRange range : ranges) {
+			KeyRange copy = new KeyRange(range.getLower(), range.getUpper());
+			copy.setLastKey(range.getLastKey());
+			copies.add(copy);
+		}
+		ScanCheckpoint copy = new ScanCheckpoint(checkpoint.getDirection(), copies);
+		copy.setStartedAt(checkpoint.getStartedAt());
+		copy.setChangedSince(checkpoint.getChangedSince());
+		copy.setCompleted(checkpoint.isCompleted());
+		return copy;
+	}
+
+	private void save(ScanCheckpoint saved) {
+		try {
+			store.save(saved);
+		} catch (IOException e) {
+			LOGGER.warn("Exception saving checkpoint to {}", store.getFile(), e);
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return The index of the range holding the key, or -1 when it is outside every range.
+	 */
+	private int rangeOf(long key) {
+		int low = 0;
+		int high = lowerBounds.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (lowerBounds[middle] <= key) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return high >= 0 && key <= ranges.get(high).getUpper() ? high : -1;
+	}
+
+	/**
+	 * The last key of each range held by one message.
+	 */
+	public static class Batch {
+		private final long sequence;
+		private final Long[] lastKeys;
+		private boolean confirmed;
+
+		private Batch(long sequence, Long[] lastKeys) {
+			this.sequence = sequence;
+			this.lastKeys = lastKeys;
+		}
+	}
+}
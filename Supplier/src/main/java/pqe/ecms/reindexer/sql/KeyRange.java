@@ -0,0 +1,54 @@
+package pqe.ecms.reindexer.sql;
+
+/**
+ * A range of document keys, both bounds inclusive, with the last key of the range that has been published. <br/>
+ * A scan that resumes the range continues after that key in the direction of the scan.
+ */
+public class KeyRange {
+
+	private long lower;
+	private long upper;
+	private Long lastKey;
+
+	public KeyRange() {
+	}
+
+	public KeyRange(long lower, long upper) {
+		this.lower = lower;
+		this.upper = upper;
+	}
+
+	public long getLower() {
+		return lower;
+	}
+
+	public void setLower(long lower) {
+		this.lower = lower;
+	}
+
+	public long getUpper() {
+		return upper;
+	}
+
+	public void setUpper(long upper) {
+		this.upper = upper;
+	}
+
+	/**
+	 * The last key of the range whose message has been accepted by SQS, together with every key before it, null when nothing has been published yet.
+	 *
+	 * @return
+	 */
+	public Long getLastKey() {
+		return lastKey;
+	}
+
+	public void setLastKey(Long lastKey) {
+		this.lastKey = lastKey;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + lower + ".." + upper + "]";
+	}
+}
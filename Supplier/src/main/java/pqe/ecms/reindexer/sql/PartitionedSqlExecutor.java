@@ -0,0 +1,199 @@
+package pqe.ecms.reindexer.sql;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pqe.ecms.reindexer.SqlConfig;
+import pqe.ecms.reindexer.SqlDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongConsumer;
+
+/**
+ * Scans the document keys as a number of ranges read in parallel, instead of the single cursor of {@link SqlExecutor}. <br/>
+ * The key space between the lowest and highest <i>document_pk</i> is split into equal ranges by {@link #planRanges(SqlConfig, int)},
+ * each range is read with keyset pagination on its own pooled connection and thread, and every page is handed to the consumer in one piece.
+ * A range with a last key is resumed after that key.
+ * The consumer only ever sees one page at a time, so it does not have to be thread safe.
+ */
+public class PartitionedSqlExecutor implements Runnable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PartitionedSqlExecutor.class);
+
+	private static final String BOUNDS_QUERY = "SELECT MIN(d.document_pk), MAX(d.document_pk) FROM documents.documents d";
+	private static final String ASC_PAGE_QUERY = "SELECT d.document_pk FROM documents.documents d WHERE d.document_pk > ? AND d.document_pk <= ? ORDER BY d.document_pk ASC LIMIT ?";
+	private static final String DESC_PAGE_QUERY = "SELECT d.document_pk FROM documents.documents d WHERE d.document_pk < ? AND d.document_pk >= ? ORDER BY d.document_pk DESC LIMIT ?";
+
+	private final SqlConfig config;
+	private final List<KeyRange> ranges;
+	private final int pageSize;
+	private final LongConsumer consumer;
+	private final Throttle throttle;
+	private volatile boolean failed;
+
+	/**
+	 * @param config
+	 * @param ranges   The ranges to read, all at once, each holds a connection of the pool while it is read.
+	 * @param pageSize The number of keys read per query.
+	 * @param consumer
+	 * @param throttle Awaited before every page, so a paused scan holds no cursor open.
+	 */
+	public PartitionedSqlExecutor(SqlConfig config, List<KeyRange> ranges, int pageSize, LongConsumer consumer, Throttle throttle) {
+		this.config = config;
+		this.ranges = ranges;
+		this.pageSize = Math.max(1, pageSize);
+		this.consumer = consumer;
+		this.throttle = throttle;
+	}
+
+	/**
+	 * Splits the keys from the lowest to the highest of the table into ranges of equal width.  There are never more ranges than keys.
+	 *
+	 * @param config
+	 * @param partitions
+	 * @return The ranges in ascending key order, none when the table is empty.
+	 * @throws SQLException
+	 */
+	public static List<KeyRange> planRanges(SqlConfig config, int partitions) throws SQLException {
+		long[] bounds = findBounds(config);
+		List<KeyRange> ranges = new ArrayList<>();
+		if (bounds == null) {
+			return ranges;
+		}
+
+		long min = bounds[0];
+		long max = bounds[1];
+		long span = max - min + 1;
+		int count = (int) Math.min(Math.max(1, partitions), span);
+		long width = span / count;
+
+		long lower = min;
+		for (int i = 0; i < count; i++) {
+			long upper = i == count - 1 ? max : lower + width - 1;
+			ranges.add(new KeyRange(lower, upper));
+			lower = upper + 1;
+		}
+		LOGGER.info("Split document keys {} to {} into {} ranges", min, max, ranges.size());
+		return ranges;
+	}
+
+	@Override
+	public void run() {
+		if (ranges.isEmpty()) {
+			LOGGER.info("There are no documents to retrieve");
+			return;
+		}
+		LOGGER.info("Retrieving {} ranges of document keys in pages of {}", ranges.size(), pageSize);
+
+		ExecutorService executor = Executors.newFixedThreadPool(ranges.size(), new ThreadFactoryBuilder().setNameFormat("sql-range-%d").build());
+		try {
+			List<CompletableFuture<Void>> futures = new ArrayList<>(ranges.size());
+			for (KeyRange range : ranges) {
+				futures.add(CompletableFuture.runAsync(() -> read(range), executor));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+			LOGGER.info("Completed retrieval of all ranges.");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return The lowest and the highest key, or null when the table is empty.
+	 * @throws SQLException
+	 */
+	private static long[] findBounds(SqlConfig config) throws SQLException {
+		Instant startTime = Instant.now();
+		try (Connection connection = SqlDataSource.getInstance(config).getConnection();
+		     PreparedStatement statement = connection.prepareStatement(BOUNDS_QUERY);
+		     ResultSet resultSet = statement.executeQuery()) {
+
+			long[] bounds = null;
+			if (resultSet.next()) {
+				long min = resultSet.getLong(1);
+				if (!resultSet.wasNull()) {
+					bounds = new long[]{min, resultSet.getLong(2)};
+				}
+			}
+			LOGGER.debug("Found the document key range in {}", Duration.between(startTime, Instant.now()));
+			return bounds;
+		}
+	}
+
+	/**
+	 * Reads a range one page at a time, continuing after the last key of the previous page.
+	 *
+	 * @param range
+	 */
+	private void read(KeyRange range) {
+		boolean ascending = config.getDirection() == SqlConfig.Direction.ASC;
+		long[] page = new long[pageSize];
+		long after = range.getLastKey() != null ? range.getLastKey() : ascending ? range.getLower() - 1 : range.getUpper() + 1;
+		long end = ascending ? range.getUpper() : range.getLower();
+		long count = 0;
+		Instant startTime = Instant.now();
+
+		try (Connection connection = SqlDataSource.getInstance(config).getConnection();
+		     PreparedStatement statement = connection.prepareStatement(ascending ? ASC_PAGE_QUERY : DESC_PAGE_QUERY)) {
+
+			int length;
+			do {
+				throttle.await();
+				statement.setLong(1, after);
+				statement.setLong(2, end);
+				statement.setInt(3, pageSize);
+
+				length = 0;
+				try (ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						page[length++] = resultSet.getLong(1);
+					}
+				}
+
+				if (length > 0) {
+					after = page[length - 1];
+					count += length;
+					handOff(page, length);
+				}
+			} while (length == pageSize);
+
+			LOGGER.info("Retrieved {} document keys of range {} in {}", count, range, Duration.between(startTime, Instant.now()));
+
+		} catch (SQLException e) {
+			failed = true;
+			LOGGER.error("Exception retrieving range {} after {} document keys, the keys following {} were not retrieved", range, count, after, e);
+		} catch (InterruptedException e) {
+			failed = true;
+			Thread.currentThread().interrupt();
+			LOGGER.warn("Interrupted retrieving range {}, the keys following {} were not retrieved", range, after);
+		} catch (RuntimeException e) {
+			failed = true;
+			LOGGER.error("Exception handing off the document keys of range {}, the keys following {} were not retrieved", range, after, e);
+		}
+	}
+
+	/**
+	 * @return Whether a range could not be read to its end.
+	 */
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	private void handOff(long[] page, int length) {
+		synchronized (consumer) {
+			for (int i = 0; i < length; i++) {
+				consumer.accept(page[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package pqe.ecms.reindexer.sql;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import pqe.ecms.reindexer.SqlConfig;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ranges a scan of the document keys is split into and how far each of them has been published, as persisted by a {@link CheckpointStore}. <br/>
+ * The database time the scan started at is the high-water mark of a completed scan: the next delta scan selects the documents changed since.
+ */
+public class ScanCheckpoint {
+
+	private SqlConfig.Direction direction;
+	private List<KeyRange> ranges = new ArrayList<>();
+	private Timestamp startedAt;
+	private Timestamp changedSince;
+	private boolean completed;
+
+	public ScanCheckpoint() {
+	}
+
+	public ScanCheckpoint(SqlConfig.Direction direction, List<KeyRange> ranges) {
+		this.direction = direction;
+		this.ranges = ranges;
+	}
+
+	/**
+	 * Plans a new scan: the whole table in a single range for a single cursor, otherwise the key space split by {@link PartitionedSqlExecutor#planRanges(SqlConfig, int)}.
+	 *
+	 * @param config
+	 * @param partitions
+	 * @return
+	 * @throws SQLException
+	 */
+	public static ScanCheckpoint plan(SqlConfig config, int partitions) throws SQLException {
+		Timestamp startedAt = SqlExecutor.currentTimestamp(config);
+		ScanCheckpoint checkpoint = partitions > 1
+				? new ScanCheckpoint(config.getDirection(), PartitionedSqlExecutor.planRanges(config, partitions))
+				: wholeTable(config.getDirection());
+		checkpoint.setStartedAt(startedAt);
+		return checkpoint;
+	}
+
+	/**
+	 * Plans a delta scan of the documents with a version dated or imported after the high-water mark, read through a single cursor.
+	 *
+	 * @param config
+	 * @param changedSince
+	 * @return
+	 * @throws SQLException
+	 */
+	public static ScanCheckpoint delta(SqlConfig config, Timestamp changedSince) throws SQLException {
+		ScanCheckpoint checkpoint = wholeTable(config.getDirection());
+		checkpoint.setStartedAt(SqlExecutor.currentTimestamp(config));
+		checkpoint.setChangedSince(changedSince);
+		return checkpoint;
+	}
+
+	/**
+	 * @param direction
+	 * @return A checkpoint of a single range covering every possible key.
+	 */
+	public static ScanCheckpoint wholeTable(SqlConfig.Direction direction) {
+		List<KeyRange> ranges = new ArrayList<>();
+		ranges.add(new KeyRange(Long.MIN_VALUE, Long.MAX_VALUE));
+		return new ScanCheckpoint(direction, ranges);
+	}
+
+	/**
+	 * @return Whether the checkpoint is a single range covering every possible key, as read by a single cursor.
+	 */
+	@JsonIgnore
+	public boolean isWholeTable() {
+		return ranges.size() == 1 && ranges.get(0).getLower() == Long.MIN_VALUE && ranges.get(0).getUpper() == Long.MAX_VALUE;
+	}
+
+	public SqlConfig.Direction getDirection() {
+		return direction;
+	}
+
+	public void setDirection(SqlConfig.Direction direction) {
+		this.direction = direction;
+	}
+
+	/**
+	 * The ranges in ascending key order.
+	 *
+	 * @return
+	 */
+	public List<KeyRange> getRanges() {
+		return ranges;
+	}
+
+	public void setRanges(List<KeyRange> ranges) {
+		this.ranges = ranges;
+	}
+
+	/**
+	 * The time of the database when the scan was planned.
+	 *
+	 * @return
+	 */
+	public Timestamp getStartedAt() {
+		return startedAt;
+	}
+
+	public void setStartedAt(Timestamp startedAt) {
+		this.startedAt = startedAt;
+	}
+
+	/**
+	 * The high-water mark of a delta scan, null for a scan of every document.
+	 *
+	 * @return
+	 */
+	public Timestamp getChangedSince() {
+		return changedSince;
+	}
+
+	public void setChangedSince(Timestamp changedSince) {
+		this.changedSince = changedSince;
+	}
+
+	/**
+	 * Whether every key of the scan has been published.
+	 *
+	 * @return
+	 */
+	public boolean isCompleted() {
+		return completed;
+	}
+
+	public void setCompleted(boolean completed) {
+		this.completed = completed;
+	}
+}
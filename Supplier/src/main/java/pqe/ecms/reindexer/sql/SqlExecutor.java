@@ -3,22 +3,66 @@ package pqe.ecms.reindexer.sql;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pqe.ecms.reindexer.SqlConfig;
+import pqe.ecms.reindexer.SqlDataSource;
 
 import java.sql.*;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 public class SqlExecutor implements Runnable {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(SqlExecutor.class);
 
+	/**
+	 * The documents with a version created or imported after the high-water mark.  Each side of the UNION can use its own index and the UNION removes the duplicates.
+	 */
+	private static final String CHANGED_DOCUMENTS = "" +
+			"SELECT v.document_fk AS document_pk FROM documents.document_versions v WHERE v.date > ? " +
+			"UNION " +
+			"SELECT v.document_fk AS document_pk FROM documents.document_versions v WHERE v.importdate_date > ?";
+
 	private final SqlConfig config;
-	private final Consumer<Long> consumer;
+	private final Long lastKey;
+	private final Timestamp changedSince;
+	private final LongConsumer consumer;
+	private final Throttle throttle;
+	private volatile boolean failed;
+
+	public SqlExecutor(SqlConfig config, LongConsumer consumer) {
+		this(config, null, null, consumer, Throttle.NONE);
+	}
 
-	public SqlExecutor(SqlConfig config, Consumer<Long> consumer) {
+	/**
+	 * @param config
+	 * @param lastKey      The key to resume the scan after, null to scan from the start.
+	 * @param changedSince Only scans the documents with a version dated or imported after this time, null to scan the whole table.
+	 * @param consumer
+	 * @param throttle     Awaited before every row.  The cursor stays open while it waits, MySQL drops a streaming cursor that
+	 *                     isn't read for longer than its net_write_timeout, so long pauses call for a partitioned scan.
+	 */
+	public SqlExecutor(SqlConfig config, Long lastKey, Timestamp changedSince, LongConsumer consumer, Throttle throttle) {
 		this.config = config;
+		this.lastKey = lastKey;
+		this.changedSince = changedSince;
 		this.consumer = consumer;
+		this.throttle = throttle;
+	}
+
+	/**
+	 * Reads the time of the database, which the dates of the document versions are written with.
+	 *
+	 * @param config
+	 * @return
+	 * @throws SQLException
+	 */
+	public static Timestamp currentTimestamp(SqlConfig config) throws SQLException {
+		try (Connection connection = SqlDataSource.getInstance(config).getConnection();
+		     PreparedStatement statement = connection.prepareStatement("SELECT CURRENT_TIMESTAMP");
+		     ResultSet resultSet = statement.executeQuery()) {
+			resultSet.next();
+			return resultSet.getTimestamp(1);
+		}
 	}
 
 	@Override
@@ -29,41 +73,60 @@ public class SqlExecutor implements Runnable {
 
 			LOGGER.info("Retrieving ResultSet ...");
 			while (resultSet.next()) {
-				Long documentId = resultSet.getLong(1);
-				consumer.accept(documentId);
+				throttle.await();
+				consumer.accept(resultSet.getLong(1));
 			}
 			LOGGER.info("Completed retrieval of ResultSet.");
 
 		} catch (SQLException e) {
+			failed = true;
 			LOGGER.error("Exception", e);
+		} catch (InterruptedException e) {
+			failed = true;
+			Thread.currentThread().interrupt();
+			LOGGER.warn("Interrupted retrieving the ResultSet");
+		} catch (RuntimeException e) {
+			failed = true;
+			LOGGER.error("Exception handing off the ResultSet", e);
 		}
 	}
 
 	/**
-	 * Creates a new connection using jpa properties if a cached connection isn't available
+	 * @return Whether the table could not be read to its end.
+	 */
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	/**
+	 * Borrows a connection from the shared pool for the configured database
 	 *
 	 * @return Connection
-	 * @throws SQLException - Unable to create connection
+	 * @throws SQLException - Unable to obtain a connection
 	 */
 	private Connection getConnection(SqlConfig config) throws SQLException {
 		Instant startTime = Instant.now();
-		LOGGER.debug("Acquiring SQL connection: {}@{}", config.getUsername(), config.getPassword());
-		Connection connection = DriverManager.getConnection(config.getUrl(), config.getUsername(), config.getPassword());
-		LOGGER.debug("Connected in {}", Duration.between(startTime, Instant.now()));
+		Connection connection = SqlDataSource.getInstance(config).getConnection();
+		LOGGER.debug("Acquired SQL connection in {}", Duration.between(startTime, Instant.now()));
 		return connection;
 	}
 
 	private PreparedStatement prepareStatement(SqlConfig config, Connection connection) throws SQLException {
 		Instant startTime = Instant.now();
+		String from = changedSince == null ? "documents.documents" : "(" + CHANGED_DOCUMENTS + ")";
 		String query;
 
 		switch (config.getDirection()) {
 			case ASC:
-				query = "SELECT d.document_pk FROM documents.documents d ORDER BY d.document_pk ASC";
+				query = lastKey == null
+						? "SELECT d.document_pk FROM " + from + " d ORDER BY d.document_pk ASC"
+						: "SELECT d.document_pk FROM " + from + " d WHERE d.document_pk > ? ORDER BY d.document_pk ASC";
 				break;
 
 			default:
-				query = "SELECT d.document_pk FROM documents.documents d ORDER BY d.document_pk DESC";
+				query = lastKey == null
+						? "SELECT d.document_pk FROM " + from + " d ORDER BY d.document_pk DESC"
+						: "SELECT d.document_pk FROM " + from + " d WHERE d.document_pk < ? ORDER BY d.document_pk DESC";
 				break;
 		}
 
@@ -74,6 +137,17 @@ public class SqlExecutor implements Runnable {
 		);
 		statement.setFetchSize(Integer.MIN_VALUE);
 
+		int parameter = 1;
+		if (changedSince != null) {
+			LOGGER.info("Scanning the documents changed since {}", changedSince);
+			statement.setTimestamp(parameter++, changedSince);
+			statement.setTimestamp(parameter++, changedSince);
+		}
+		if (lastKey != null) {
+			LOGGER.info("Resuming the scan after document key {}", lastKey);
+			statement.setLong(parameter, lastKey);
+		}
+
 		LOGGER.debug("Prepared query statement in {}", Duration.between(startTime, Instant.now()));
 		return statement;
 	}
@@ -2,26 +2,74 @@ package pqe.ecms.reindexer.sql;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import pqe.ecms.reindexer.AbstractSource;
+import pqe.ecms.reindexer.AbstractLongSource;
 import pqe.ecms.reindexer.SqlConfig;
+import pqe.ecms.reindexer.WaitStrategy;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
-public class SqlSource extends AbstractSource<Long> {
+public class SqlSource extends AbstractLongSource {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(SqlSource.class);
 
-	public SqlSource(SqlConfig config) {
-		super();
-		CompletableFuture.runAsync(new SqlExecutor(config, this) {
-			@Override
-			public void run() {
-				super.run();
-				SqlSource.this.waitUntilEmpty();
+	private final BooleanSupplier failed;
+
+	/**
+	 * @param config
+	 * @param capacity     The number of document ids buffered ahead of the stream.
+	 * @param waitStrategy Creates the strategy the cursor and the stream wait on each other with.
+	 */
+	public SqlSource(SqlConfig config, int capacity, Supplier<WaitStrategy> waitStrategy) {
+		this(config, ScanCheckpoint.wholeTable(config.getDirection()), 0, capacity, waitStrategy, 0, Throttle.NONE);
+	}
+
+	/**
+	 * Scans the ranges of the checkpoint, each after its last key.  A checkpoint of the whole table, or of the documents changed since a time,
+	 * is read through a single {@link SqlExecutor} cursor, any other ranges in parallel with a {@link PartitionedSqlExecutor}.
+	 *
+	 * @param config
+	 * @param checkpoint
+	 * @param pageSize     The number of document ids read per query of a range.
+	 * @param capacity     The number of document ids buffered ahead of the stream.
+	 * @param waitStrategy Creates the strategy the readers and the stream wait on each other with.
+	 * @param lingerMillis The longest a document id read waits for the rest of its chunk, so ids aren't held back while the readers are throttled
+	 *                     or waiting on the database.
+	 * @param throttle     Holds the readers back while the downstream is behind.
+	 */
+	public SqlSource(SqlConfig config, ScanCheckpoint checkpoint, int pageSize, int capacity, Supplier<WaitStrategy> waitStrategy, long lingerMillis,
+	                 Throttle throttle) {
+		super(capacity, waitStrategy, lingerMillis);
+		List<KeyRange> ranges = checkpoint.getRanges();
+		Runnable executor;
+		if (checkpoint.isWholeTable()) {
+			SqlExecutor cursor = new SqlExecutor(config, ranges.get(0).getLastKey(), checkpoint.getChangedSince(), this, throttle);
+			this.failed = cursor::hasFailed;
+			executor = cursor;
+		} else {
+			PartitionedSqlExecutor partitioned = new PartitionedSqlExecutor(config, ranges, pageSize, this, throttle);
+			this.failed = partitioned::hasFailed;
+			executor = partitioned;
+		}
+
+		CompletableFuture.runAsync(() -> {
+			try {
+				executor.run();
+			} finally {
+				complete();
 			}
 		});
 	}
 
+	/**
+	 * @return Whether the table could not be read to its end, only meaningful once the stream has ended.
+	 */
+	public boolean hasFailed() {
+		return failed.getAsBoolean();
+	}
+
 	@Override
 	protected Logger logger() {
 		return LOGGER;
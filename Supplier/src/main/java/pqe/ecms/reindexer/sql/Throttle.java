@@ -0,0 +1,21 @@
+package pqe.ecms.reindexer.sql;
+
+/**
+ * Holds the readers of the document keys back while the downstream has too much to do.
+ */
+@FunctionalInterface
+public interface Throttle {
+
+	/**
+	 * Never holds the readers back.
+	 */
+	Throttle NONE = () -> {
+	};
+
+	/**
+	 * Returns as soon as reading may go on, which should be a single volatile read while it isn't throttled.
+	 *
+	 * @throws InterruptedException
+	 */
+	void await() throws InterruptedException;
+}
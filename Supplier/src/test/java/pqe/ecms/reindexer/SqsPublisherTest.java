@@ -0,0 +1,108 @@
+package pqe.ecms.reindexer;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SqsPublisherTest {
+
+	private final List<Integer> requests = Collections.synchronizedList(new ArrayList<>());
+
+	@Test
+	public void lingeringPartialBatchIsSent() throws Exception {
+		SqsPublisher publisher = new SqsPublisher("queue", config(50), sqsClient());
+		List<CompletableFuture<Long>> published = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			published.add(publisher.publish(QueueMessageCodec.encode(new long[]{i}, 1)));
+		}
+
+		CompletableFuture.allOf(published.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+		assertEquals(Collections.singletonList(3), requests);
+		assertEquals(1, publisher.getLingerCount());
+		publisher.close();
+	}
+
+	@Test
+	public void partialBatchWaitsForFlushWithoutLinger() throws Exception {
+		SqsPublisher publisher = new SqsPublisher("queue", config(0), sqsClient());
+		CompletableFuture<Long> published = publisher.publish(QueueMessageCodec.encode(new long[]{1}, 1));
+
+		Thread.sleep(100);
+		assertTrue(requests.isEmpty());
+		assertFalse(published.isDone());
+
+		publisher.flush();
+		published.get(5, TimeUnit.SECONDS);
+		assertEquals(Collections.singletonList(1), requests);
+		publisher.close();
+	}
+
+	@Test
+	public void fullBatchIsSentRightAway() throws Exception {
+		SqsPublisher publisher = new SqsPublisher("queue", config(0), sqsClient());
+		for (int i = 0; i < 12; i++) {
+			publisher.publish(QueueMessageCodec.encode(new long[]{i}, 1));
+		}
+
+		assertEquals(Collections.singletonList(10), requests);
+		publisher.close();
+		assertEquals(2, requests.size());
+		assertEquals(Integer.valueOf(2), requests.get(1));
+	}
+
+	@Test
+	public void sendTimeLeavesOutTheWaitForTheBatch() throws Exception {
+		SqsPublisher publisher = new SqsPublisher("queue", config(0), sqsClient());
+		CompletableFuture<Long> published = publisher.publish(QueueMessageCodec.encode(new long[]{1}, 1));
+
+		Thread.sleep(200);
+		publisher.flush();
+		long sendNanos = published.get(5, TimeUnit.SECONDS);
+		assertTrue(sendNanos >= 0);
+		assertTrue(sendNanos < TimeUnit.MILLISECONDS.toNanos(200));
+		publisher.close();
+	}
+
+	private static AppConfig config(long lingerMillis) {
+		AppConfig config = new AppConfig();
+		config.setMaxInFlightRequests(2);
+		config.setMaxSendAttempts(3);
+		config.setLingerMillis(lingerMillis);
+		return config;
+	}
+
+	/**
+	 * @return A client accepting every entry of a batch, recording the number of entries of each request.
+	 */
+	@SuppressWarnings("unchecked")
+	private AmazonSQSAsync sqsClient() {
+		return (AmazonSQSAsync) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{AmazonSQSAsync.class}, (proxy, method, args) -> {
+			if (!method.getName().equals("sendMessageBatchAsync") || args.length != 2) {
+				throw new UnsupportedOperationException(method.getName());
+			}
+			SendMessageBatchRequest request = (SendMessageBatchRequest) args[0];
+			requests.add(request.getEntries().size());
+			SendMessageBatchResult result = new SendMessageBatchResult();
+			for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+				result.getSuccessful().add(new SendMessageBatchResultEntry().withId(entry.getId()));
+			}
+			((AsyncHandler<SendMessageBatchRequest, SendMessageBatchResult>) args[1]).onSuccess(request, result);
+			return null;
+		});
+	}
+}
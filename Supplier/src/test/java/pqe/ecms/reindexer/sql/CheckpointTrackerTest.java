@@ -0,0 +1,123 @@
+package pqe.ecms.reindexer.sql;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pqe.ecms.reindexer.SqlConfig;
+
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointTrackerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CheckpointStore store;
+
+	@Before
+	public void setUp() {
+		store = new CheckpointStore(folder.getRoot().toPath().resolve("checkpoint.json"));
+	}
+
+	@Test
+	public void outOfOrderConfirmationsAdvanceInPublishOrder() throws Exception {
+		CheckpointTracker tracker = new CheckpointTracker(twoRanges(), store);
+		CheckpointTracker.Batch first = tracker.register(new long[]{1, 2, 101}, 3);
+		CheckpointTracker.Batch second = tracker.register(new long[]{3, 102}, 2);
+		CheckpointTracker.Batch third = tracker.register(new long[]{4, 500}, 2);
+
+		tracker.settle(third, true);
+		tracker.settle(second, true);
+		assertLastKeys(tracker.getCheckpoint(), null, null);
+
+		tracker.settle(first, true);
+		assertLastKeys(tracker.getCheckpoint(), 4L, 102L);
+		assertEquals(0, tracker.getPendingCount());
+
+		assertTrue(tracker.finish(true));
+		ScanCheckpoint saved = store.load();
+		assertTrue(saved.isCompleted());
+		assertLastKeys(saved, 4L, 102L);
+	}
+
+	@Test
+	public void failedMessageHoldsCheckpointBack() throws Exception {
+		CheckpointTracker tracker = new CheckpointTracker(twoRanges(), store);
+		CheckpointTracker.Batch first = tracker.register(new long[]{1, 101}, 2);
+		CheckpointTracker.Batch second = tracker.register(new long[]{2, 102}, 2);
+		CheckpointTracker.Batch third = tracker.register(new long[]{3, 103}, 2);
+
+		tracker.settle(second, false);
+		assertEquals(1, tracker.getPendingCount());
+		tracker.settle(third, true);
+		tracker.settle(first, true);
+		assertLastKeys(tracker.getCheckpoint(), 1L, 101L);
+
+		// Messages published after a failure are no longer tracked, so they can't pile up.
+		CheckpointTracker.Batch fourth = tracker.register(new long[]{4, 104}, 2);
+		assertEquals(0, tracker.getPendingCount());
+		tracker.settle(fourth, true);
+		assertLastKeys(tracker.getCheckpoint(), 1L, 101L);
+
+		assertFalse(tracker.finish(true));
+		assertEquals(1, tracker.getFailedCount());
+		ScanCheckpoint saved = store.load();
+		assertFalse(saved.isCompleted());
+		assertLastKeys(saved, 1L, 101L);
+	}
+
+	@Test
+	public void earlierFailureDropsMessagesAfterIt() throws Exception {
+		CheckpointTracker tracker = new CheckpointTracker(twoRanges(), store);
+		CheckpointTracker.Batch first = tracker.register(new long[]{1}, 1);
+		CheckpointTracker.Batch second = tracker.register(new long[]{2}, 1);
+		tracker.register(new long[]{3}, 1);
+
+		tracker.settle(second, false);
+		tracker.settle(first, false);
+		assertEquals(0, tracker.getPendingCount());
+		assertEquals(2, tracker.getFailedCount());
+		assertLastKeys(tracker.getCheckpoint(), null, null);
+	}
+
+	@Test
+	public void unconfirmedMessageLeavesScanIncomplete() throws Exception {
+		CheckpointTracker tracker = new CheckpointTracker(twoRanges(), store);
+		tracker.register(new long[]{1}, 1);
+
+		assertFalse(tracker.finish(true));
+		assertFalse(store.load().isCompleted());
+	}
+
+	@Test
+	public void movedCheckpointIsSavedByTheWriter() throws Exception {
+		CheckpointTracker tracker = new CheckpointTracker(twoRanges(), store, 10);
+		tracker.settle(tracker.register(new long[]{5, 150}, 2), true);
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!Files.exists(store.getFile()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		ScanCheckpoint saved = store.load();
+		assertLastKeys(saved, 5L, 150L);
+		assertFalse(saved.isCompleted());
+		tracker.finish(false);
+	}
+
+	private static ScanCheckpoint twoRanges() {
+		List<KeyRange> ranges = Arrays.asList(new KeyRange(0, 99), new KeyRange(100, 199));
+		return new ScanCheckpoint(SqlConfig.Direction.ASC, ranges);
+	}
+
+	private static void assertLastKeys(ScanCheckpoint checkpoint, Long first, Long second) {
+		assertEquals(first, checkpoint.getRanges().get(0).getLastKey());
+		assertEquals(second, checkpoint.getRanges().get(1).getLastKey());
+	}
+}
@@ -0,0 +1,115 @@
+package pqe.ecms.title;
+
+/**
+ * Sizing and lifetimes of the caches of {@link TitleContent}.
+ */
+public class TitleCacheConfig {
+
+	private long maxCachedTitles = 1000;
+	private long refreshAfterWriteMinutes = 10;
+	private long expireAfterWriteMinutes = 60;
+	private long notFoundSeconds = 60;
+	private int loaderThreads = 8;
+	private String snapshotFile;
+	private long snapshotSeconds = 300;
+	private int warmUpTitles = 1000;
+
+	public long getMaxCachedTitles() {
+		return maxCachedTitles;
+	}
+
+	public void setMaxCachedTitles(long maxCachedTitles) {
+		this.maxCachedTitles = maxCachedTitles;
+	}
+
+	/**
+	 * How old a title gets before the next read reloads it in the background, while the read itself still gets the cached title.
+	 *
+	 * @return
+	 */
+	public long getRefreshAfterWriteMinutes() {
+		return refreshAfterWriteMinutes;
+	}
+
+	public void setRefreshAfterWriteMinutes(long refreshAfterWriteMinutes) {
+		this.refreshAfterWriteMinutes = refreshAfterWriteMinutes;
+	}
+
+	/**
+	 * How old a title gets before it is dropped, so titles nobody reads are loaded again in the foreground.
+	 *
+	 * @return
+	 */
+	public long getExpireAfterWriteMinutes() {
+		return expireAfterWriteMinutes;
+	}
+
+	public void setExpireAfterWriteMinutes(long expireAfterWriteMinutes) {
+		this.expireAfterWriteMinutes = expireAfterWriteMinutes;
+	}
+
+	/**
+	 * How long a title the service doesn't know is answered as not found without asking again, 0 always asks.
+	 *
+	 * @return
+	 */
+	public long getNotFoundSeconds() {
+		return notFoundSeconds;
+	}
+
+	public void setNotFoundSeconds(long notFoundSeconds) {
+		this.notFoundSeconds = notFoundSeconds;
+	}
+
+	/**
+	 * The threads loading titles for background refreshes and {@link TitleContent#prefetch(java.util.Collection)}.
+	 *
+	 * @return
+	 */
+	public int getLoaderThreads() {
+		return loaderThreads;
+	}
+
+	public void setLoaderThreads(int loaderThreads) {
+		this.loaderThreads = loaderThreads;
+	}
+
+	/**
+	 * The local file the cached titles are saved to and restored from on startup, null keeps no snapshot.
+	 *
+	 * @return
+	 */
+	public String getSnapshotFile() {
+		return snapshotFile;
+	}
+
+	public void setSnapshotFile(String snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**
+	 * How often the snapshot is saved, 0 only saves it on {@link TitleContent#close()}.
+	 *
+	 * @return
+	 */
+	public long getSnapshotSeconds() {
+		return snapshotSeconds;
+	}
+
+	public void setSnapshotSeconds(long snapshotSeconds) {
+		this.snapshotSeconds = snapshotSeconds;
+	}
+
+	/**
+	 * The number of titles read the most that are restored from the snapshot on startup.
+	 *
+	 * @return
+	 */
+	public int getWarmUpTitles() {
+		return warmUpTitles;
+	}
+
+	public void setWarmUpTitles(int warmUpTitles) {
+		this.warmUpTitles = warmUpTitles;
+	}
+}
@@ -1,9 +1,14 @@
 package pqe.ecms.title;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,30 +23,81 @@ import pqe.ecms.client.titlemanagement.domain.TitleInformation;
 import pqe.ecms.title.exceptions.TitleContentException;
 import pqe.ecms.title.exceptions.TitleNotFoundException;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Handles the retrieval and caching of title-related information from the Title Management Service.<br>
+ * Cached titles older than {@link TitleCacheConfig#getRefreshAfterWriteMinutes()} are reloaded in the background while the old title keeps being served,
+ * so titles in steady use never block a reader.  Titles the service doesn't know are remembered as not found for {@link TitleCacheConfig#getNotFoundSeconds()}.
+ * <br>
+ * With a {@link TitleCacheConfig#getSnapshotFile()} the cached titles are saved periodically and restored on startup, so a new JVM starts warm.
  */
 public class TitleContent {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(TitleContent.class);
 
-	private static final Integer MAX_CACHED_TITLES = 1000;
-	private static final int CACHE_DURATION_VALUE = 10;
-	private static final TimeUnit CACHE_DURATION_UNIT = TimeUnit.MINUTES;
-
 	private static final int MAX_ATTEMPTS = 7; // Not an evidence-based value
 	public static final int BASIC_RETRY_SLEEP_INTERVAL_MS = 100;
 
 	private TitleManagementClient titleManagementClient;
 
-	private LoadingCache<PublicationId, TitleInformation> titleInfoCache;
+	private TitleCacheConfig config;
+	private ExecutorService loaderService;
+	private LoadingCache<PublicationId, CachedTitle> titleInfoCache;
+	private Cache<PublicationId, TitleNotFoundException> notFoundCache;
+	private final LongAdder notFoundHitCount = new LongAdder();
+
+	private TitleSnapshotStore snapshotStore;
+	private ScheduledExecutorService snapshotService;
+	private final AtomicBoolean closed = new AtomicBoolean();
 
 	public TitleContent(EcmsClientFactory ecmsClientFactory) {
+		this(ecmsClientFactory, new TitleCacheConfig());
+	}
+
+	public TitleContent(EcmsClientFactory ecmsClientFactory, TitleCacheConfig config) {
 		this.titleManagementClient = ecmsClientFactory.getClient(TitleManagementClient.class);
+		this.config = config;
+		this.loaderService = Executors.newFixedThreadPool(Math.max(1, config.getLoaderThreads()), new ThreadFactoryBuilder().setNameFormat("title-loader-%d").setDaemon(true).build());
 		titleInfoCache = buildTitleContentCache();
+		notFoundCache = CacheBuilder.newBuilder()
+				.maximumSize(config.getMaxCachedTitles())
+				.expireAfterWrite(config.getNotFoundSeconds(), TimeUnit.SECONDS)
+				.build();
+
+		if (config.getSnapshotFile() != null) {
+			snapshotStore = new TitleSnapshotStore(Paths.get(config.getSnapshotFile()));
+			try {
+				TitleSnapshot snapshot = snapshotStore.load();
+				if (snapshot != null) {
+					warmUp(snapshot, config.getWarmUpTitles());
+				}
+			} catch (IOException e) {
+				LOGGER.warn("Exception loading title snapshot {}, starting cold", snapshotStore.getFile(), e);
+			}
+
+			if (config.getSnapshotSeconds() > 0) {
+				snapshotService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("title-snapshot-%d").setDaemon(true).build());
+				snapshotService.scheduleWithFixedDelay(this::saveSnapshotQuietly, config.getSnapshotSeconds(), config.getSnapshotSeconds(), TimeUnit.SECONDS);
+			}
+			Runtime.getRuntime().addShutdownHook(new Thread(this::close, "title-snapshot-shutdown"));
+		}
 	}
 
 	/**
@@ -56,7 +112,189 @@ public class TitleContent {
 			LOGGER.trace("Retrieving title information for title id <{}>", pubId.toString());
 		}
 
-		return fetchFromCache(pubId, titleInfoCache, "title information");
+		CachedTitle cached = fetchFromCache(pubId, titleInfoCache, "title information");
+		if (cached.expiresAt != Long.MAX_VALUE) {
+			cached = checkRestored(pubId, cached);
+		}
+		cached.reads.increment();
+		return cached.titleInformation;
+	}
+
+	/**
+	 * Holds a title restored from a snapshot to the age it had when it was saved, which the cache doesn't know about: it is reloaded in the background
+	 * once it is as old as {@link TitleCacheConfig#getRefreshAfterWriteMinutes()}, and loaded again once it is as old as {@link TitleCacheConfig#getExpireAfterWriteMinutes()}.
+	 *
+	 * @param pubId
+	 * @param cached
+	 * @return The title to read.
+	 * @throws TitleContentException
+	 */
+	private CachedTitle checkRestored(PublicationId pubId, CachedTitle cached) throws TitleContentException {
+		long now = System.currentTimeMillis();
+		if (now >= cached.expiresAt) {
+			titleInfoCache.asMap().remove(pubId, cached);
+			return fetchFromCache(pubId, titleInfoCache, "title information");
+		}
+		if (now >= cached.refreshAt) {
+			cached.refreshAt = Long.MAX_VALUE;
+			titleInfoCache.refresh(pubId);
+		}
+		return cached;
+	}
+
+	/**
+	 * Loads the titles that aren't cached yet concurrently, so the documents of a batch can be mapped without waiting on the title management service one title at a time.
+	 * Titles that fail to load are left out, {@link #getTitleInfo(PublicationId)} reports their failure.
+	 * The titles are loaded outside of the cache and only added when a reader hasn't cached them meanwhile, so prefetching doesn't count as cache misses.
+	 *
+	 * @param pubIds The titles of the batch, repeats are loaded once.
+	 * @return The number of titles loaded.
+	 */
+	public int prefetch(Collection<PublicationId> pubIds) {
+		List<Future<CachedTitle>> loads = new ArrayList<>();
+		for (PublicationId pubId : new LinkedHashSet<>(pubIds)) {
+			if (!titleInfoCache.asMap().containsKey(pubId) && notFoundCache.getIfPresent(pubId) == null) {
+				loads.add(loaderService.submit(() -> {
+					CachedTitle loaded = loadTitle(pubId);
+					titleInfoCache.asMap().putIfAbsent(pubId, loaded);
+					return loaded;
+				}));
+			}
+		}
+
+		int loaded = 0;
+		for (Future<CachedTitle> load : loads) {
+			try {
+				load.get();
+				loaded++;
+			} catch (ExecutionException e) {
+				LOGGER.debug("Exception prefetching title information", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Prefetched {} of {} uncached titles", loaded, loads.size());
+		}
+		return loaded;
+	}
+
+	/**
+	 * Preloads the titles of a snapshot read the most, up to a count.  Titles younger than {@link TitleCacheConfig#getExpireAfterWriteMinutes()} are cached as they are,
+	 * and reloaded in the background right away when they are older than {@link TitleCacheConfig#getRefreshAfterWriteMinutes()}.
+	 * The cache counts the age of a title from when it was put, so restored titles keep the age they were saved with and are refreshed and expired by it when read.
+	 * Older titles are loaded again from the title management service with {@link #prefetch(Collection)}.
+	 *
+	 * @param snapshot
+	 * @param count    The most titles preloaded.
+	 * @return The number of titles cached.
+	 */
+	public int warmUp(TitleSnapshot snapshot, int count) {
+		long now = System.currentTimeMillis();
+		long maxAge = TimeUnit.MINUTES.toMillis(config.getExpireAfterWriteMinutes());
+		long refreshAge = config.getRefreshAfterWriteMinutes() > 0 ? TimeUnit.MINUTES.toMillis(config.getRefreshAfterWriteMinutes()) : Long.MAX_VALUE;
+
+		List<TitleSnapshot.Entry> entries = snapshot.getTitles().stream()
+				.filter(entry -> entry.getPublicationId() != null && entry.getTitleInformation() != null)
+				.sorted(Comparator.comparingLong(TitleSnapshot.Entry::getReads).reversed())
+				.limit(Math.max(0, Math.min(count, config.getMaxCachedTitles())))
+				.collect(Collectors.toList());
+
+		int restored = 0;
+		List<PublicationId> expired = new ArrayList<>();
+		for (TitleSnapshot.Entry entry : entries) {
+			long age = now - entry.getLoadedAt();
+			if (age < 0 || age >= maxAge) {
+				expired.add(entry.getPublicationId());
+				continue;
+			}
+
+			long refreshAt = refreshAge == Long.MAX_VALUE ? Long.MAX_VALUE : entry.getLoadedAt() + refreshAge;
+			CachedTitle cached = new CachedTitle(entry.getTitleInformation(), entry.getLoadedAt(), refreshAt, entry.getLoadedAt() + maxAge);
+			cached.reads.add(entry.getReads());
+			titleInfoCache.put(entry.getPublicationId(), cached);
+			if (age >= refreshAge) {
+				cached.refreshAt = Long.MAX_VALUE;
+				titleInfoCache.refresh(entry.getPublicationId());
+			}
+			restored++;
+		}
+
+		int loaded = prefetch(expired);
+		LOGGER.info("Warmed up the title cache with {} of {} snapshot titles, and reloaded {} of {} expired titles", restored, snapshot.getTitles().size(), loaded, expired.size());
+		return restored + loaded;
+	}
+
+	/**
+	 * @return The titles cached right now.
+	 */
+	public TitleSnapshot createSnapshot() {
+		TitleSnapshot snapshot = new TitleSnapshot();
+		snapshot.setSavedAt(System.currentTimeMillis());
+		for (Map.Entry<PublicationId, CachedTitle> entry : titleInfoCache.asMap().entrySet()) {
+			CachedTitle cached = entry.getValue();
+			snapshot.getTitles().add(new TitleSnapshot.Entry(entry.getKey(), cached.titleInformation, cached.loadedAt, cached.reads.longValue()));
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Saves the cached titles to the configured snapshot file, if any.
+	 *
+	 * @throws IOException
+	 */
+	public void saveSnapshot() throws IOException {
+		if (snapshotStore == null) {
+			return;
+		}
+		TitleSnapshot snapshot = createSnapshot();
+		snapshotStore.save(snapshot);
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Saved snapshot of {} titles to {}", snapshot.getTitles().size(), snapshotStore.getFile());
+		}
+	}
+
+	/**
+	 * Stops the periodic snapshots and the loader threads, saving a last snapshot.  Also run by a shutdown hook when there is a snapshot file,
+	 * only the first call has an effect.
+	 */
+	public void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		if (snapshotService != null) {
+			snapshotService.shutdown();
+		}
+		saveSnapshotQuietly();
+		loaderService.shutdown();
+	}
+
+	private void saveSnapshotQuietly() {
+		try {
+			saveSnapshot();
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Exception saving title snapshot {}", snapshotStore.getFile(), e);
+		}
+	}
+
+	/**
+	 * @return The statistics of the title cache, recorded from its creation.
+	 */
+	public CacheStats getCacheStats() {
+		return titleInfoCache.stats();
+	}
+
+	/**
+	 * Summarizes the caches for status logging.
+	 *
+	 * @return
+	 */
+	public String getStatistics() {
+		CacheStats stats = titleInfoCache.stats();
+		return String.format("titleHits=%d, titleMisses=%d, titleHitRate=%.1f%%, titleLoads=%d, titleLoadFailures=%d, titleAvgLoadMs=%.1f, titleNotFoundHits=%d, titlesCached=%d, titleEvictions=%d",
+				stats.hitCount(), stats.missCount(), stats.hitRate() * 100, stats.loadCount(), stats.loadExceptionCount(),
+				stats.averageLoadPenalty() / TimeUnit.MILLISECONDS.toNanos(1), notFoundHitCount.longValue(), titleInfoCache.size(), stats.evictionCount());
 	}
 
 	@FunctionalInterface
@@ -92,16 +330,51 @@ public class TitleContent {
 	 *
 	 * @return A cache configured for retrieving title information from the title management service.
 	 */
-	private LoadingCache<PublicationId, TitleInformation> buildTitleContentCache() {
-		return CacheBuilder.newBuilder()
-				.maximumSize(MAX_CACHED_TITLES)
-				.expireAfterWrite(CACHE_DURATION_VALUE, CACHE_DURATION_UNIT)
-				.build(new CacheLoader<PublicationId, TitleInformation>() {
+	private LoadingCache<PublicationId, CachedTitle> buildTitleContentCache() {
+		CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+				.maximumSize(config.getMaxCachedTitles())
+				.expireAfterWrite(config.getExpireAfterWriteMinutes(), TimeUnit.MINUTES)
+				.recordStats();
+		if (config.getRefreshAfterWriteMinutes() > 0) {
+			builder.refreshAfterWrite(config.getRefreshAfterWriteMinutes(), TimeUnit.MINUTES);
+		}
+		return builder.build(CacheLoader.asyncReloading(new CacheLoader<PublicationId, CachedTitle>() {
+
+			public CachedTitle load(PublicationId pubId) throws Exception {
+				return loadTitle(pubId);
+			}
+
+			@Override
+			public ListenableFuture<CachedTitle> reload(PublicationId pubId, CachedTitle oldValue) throws Exception {
+				CachedTitle reloaded = load(pubId);
+				reloaded.reads.add(oldValue.reads.longValue());
+				return Futures.immediateFuture(reloaded);
+			}
+		}, loaderService));
+	}
+
+	/**
+	 * Loads a title from the title management service, answering titles recently not found from the negative cache.
+	 *
+	 * @param pubId
+	 * @return
+	 * @throws Exception
+	 */
+	private CachedTitle loadTitle(PublicationId pubId) throws Exception {
+		TitleNotFoundException notFound = notFoundCache.getIfPresent(pubId);
+		if (notFound != null) {
+			notFoundHitCount.increment();
+			throw new TitleNotFoundException(String.format("Title <%s> was recently not found", pubId.toString()), notFound);
+		}
 
-					public TitleInformation load(PublicationId pubId) throws Exception {
-						return fetchTitleInfo(pubId);
-					}
-				});
+		try {
+			return new CachedTitle(fetchTitleInfo(pubId), System.currentTimeMillis());
+		} catch (TitleNotFoundException e) {
+			if (config.getNotFoundSeconds() > 0) {
+				notFoundCache.put(pubId, e);
+			}
+			throw e;
+		}
 	}
 
 	@FunctionalInterface
@@ -164,4 +437,27 @@ public class TitleContent {
 		);
 	}
 
+	/**
+	 * A cached title with when it was loaded and how often it was read since.  A title restored from a snapshot also carries when it is due
+	 * for a refresh and when it expires, the titles the cache loaded itself leave that to the cache.
+	 */
+	private static class CachedTitle {
+		private final TitleInformation titleInformation;
+		private final long loadedAt;
+		private final long expiresAt;
+		private volatile long refreshAt;
+		private final LongAdder reads = new LongAdder();
+
+		private CachedTitle(TitleInformation titleInformation, long loadedAt) {
+			this(titleInformation, loadedAt, Long.MAX_VALUE, Long.MAX_VALUE);
+		}
+
+		private CachedTitle(TitleInformation titleInformation, long loadedAt, long refreshAt, long expiresAt) {
+			this.titleInformation = titleInformation;
+			this.loadedAt = loadedAt;
+			this.refreshAt = refreshAt;
+			this.expiresAt = expiresAt;
+		}
+	}
+
 }
@@ -28,6 +28,20 @@ public class TitleContentFactory {
 		return titleContentMap.get(ecmsClientFactory);
 	}
 
+	/**
+	 * Get the singleton TitleContent, created with the given cache configuration when it doesn't exist yet.
+	 *
+	 * @return The singleton
+	 */
+	public static TitleContent getInstance(EcmsClientFactory ecmsClientFactory, TitleCacheConfig config) {
+		if (!titleContentMap.containsKey(ecmsClientFactory)) {
+			synchronized (lock) {
+				titleContentMap.computeIfAbsent(ecmsClientFactory, factory -> new TitleContent(factory, config));
+			}
+		}
+		return titleContentMap.get(ecmsClientFactory);
+	}
+
 	/**
 	 * Set the instance of TitleContent the factory should return.
 	 *
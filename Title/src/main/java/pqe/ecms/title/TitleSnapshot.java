@@ -0,0 +1,87 @@
+package pqe.ecms.title;
+
+import pqe.ecms.client.titlemanagement.domain.PublicationId;
+import pqe.ecms.client.titlemanagement.domain.TitleInformation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The titles cached by a {@link TitleContent} at one point in time, with when each was loaded and how often it was read.
+ */
+public class TitleSnapshot {
+
+	private long savedAt;
+	private List<Entry> titles = new ArrayList<>();
+
+	public long getSavedAt() {
+		return savedAt;
+	}
+
+	public void setSavedAt(long savedAt) {
+		this.savedAt = savedAt;
+	}
+
+	public List<Entry> getTitles() {
+		return titles;
+	}
+
+	public void setTitles(List<Entry> titles) {
+		this.titles = titles;
+	}
+
+	public static class Entry {
+		private PublicationId publicationId;
+		private TitleInformation titleInformation;
+		private long loadedAt;
+		private long reads;
+
+		public Entry() {
+		}
+
+		public Entry(PublicationId publicationId, TitleInformation titleInformation, long loadedAt, long reads) {
+			this.publicationId = publicationId;
+			this.titleInformation = titleInformation;
+			this.loadedAt = loadedAt;
+			this.reads = reads;
+		}
+
+		public PublicationId getPublicationId() {
+			return publicationId;
+		}
+
+		public void setPublicationId(PublicationId publicationId) {
+			this.publicationId = publicationId;
+		}
+
+		public TitleInformation getTitleInformation() {
+			return titleInformation;
+		}
+
+		public void setTitleInformation(TitleInformation titleInformation) {
+			this.titleInformation = titleInformation;
+		}
+
+		/**
+		 * @return When the title was loaded from the title management service, in epoch milliseconds.
+		 */
+		public long getLoadedAt() {
+			return loadedAt;
+		}
+
+		public void setLoadedAt(long loadedAt) {
+			this.loadedAt = loadedAt;
+		}
+
+		/**
+		 * @return The number of times the title was read, across every run that restored it.
+		 */
+		public long getReads() {
+			return reads;
+		}
+
+		public void setReads(long reads) {
+			this.reads = reads;
+		}
+	}
+}
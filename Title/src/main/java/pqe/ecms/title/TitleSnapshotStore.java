@@ -0,0 +1,60 @@
+package pqe.ecms.title;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps a {@link TitleSnapshot} in a local gzipped JSON file. <br/>
+ * Every save writes a temporary file next to the snapshot and moves it into place, so a crash leaves either the previous or the new snapshot.
+ */
+public class TitleSnapshotStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TitleSnapshotStore.class);
+
+	private final ObjectMapper mapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+	private final Path file;
+	private final Path temporaryFile;
+
+	public TitleSnapshotStore(Path file) {
+		this.file = file.toAbsolutePath();
+		this.temporaryFile = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+	}
+
+	/**
+	 * @return The snapshot saved last, or null when there is none.
+	 * @throws IOException
+	 */
+	public TitleSnapshot load() throws IOException {
+		if (!Files.exists(file)) {
+			return null;
+		}
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+			TitleSnapshot snapshot = mapper.readValue(in, TitleSnapshot.class);
+			LOGGER.info("Loaded snapshot of {} titles from {}", snapshot.getTitles().size(), file);
+			return snapshot;
+		}
+	}
+
+	public void save(TitleSnapshot snapshot) throws IOException {
+		Files.createDirectories(file.getParent());
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporaryFile))) {
+			mapper.writeValue(out, snapshot);
+		}
+		Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public Path getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,53 @@
+package pqe.ecms.title;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pqe.ecms.client.titlemanagement.domain.PublicationId;
+import pqe.ecms.client.titlemanagement.domain.TitleInformation;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class TitleSnapshotStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void savedSnapshotLoadsBackUnchanged() throws Exception {
+		TitleSnapshot snapshot = new TitleSnapshot();
+		snapshot.setSavedAt(1_500_000_000_000L);
+		snapshot.getTitles().add(new TitleSnapshot.Entry(new PublicationId("1234567"), new TitleInformation(), 1_499_999_000_000L, 42));
+		snapshot.getTitles().add(new TitleSnapshot.Entry(new PublicationId("7654321"), new TitleInformation(), 1_499_999_500_000L, 0));
+
+		Path file = folder.getRoot().toPath().resolve("snapshots").resolve("titles.json.gz");
+		TitleSnapshotStore store = new TitleSnapshotStore(file);
+		store.save(snapshot);
+		assertFalse(Files.exists(file.resolveSibling("titles.json.gz.tmp")));
+
+		TitleSnapshot loaded = new TitleSnapshotStore(file).load();
+		assertEquals(snapshot.getSavedAt(), loaded.getSavedAt());
+		assertEquals(snapshot.getTitles().size(), loaded.getTitles().size());
+		for (int i = 0; i < snapshot.getTitles().size(); i++) {
+			TitleSnapshot.Entry saved = snapshot.getTitles().get(i);
+			TitleSnapshot.Entry restored = loaded.getTitles().get(i);
+			assertEquals(saved.getPublicationId().toString(), restored.getPublicationId().toString());
+			assertEquals(mapper.writeValueAsString(saved.getTitleInformation()), mapper.writeValueAsString(restored.getTitleInformation()));
+			assertEquals(saved.getLoadedAt(), restored.getLoadedAt());
+			assertEquals(saved.getReads(), restored.getReads());
+		}
+	}
+
+	@Test
+	public void missingSnapshotLoadsAsNull() throws Exception {
+		assertNull(new TitleSnapshotStore(folder.getRoot().toPath().resolve("missing.json.gz")).load());
+	}
+}